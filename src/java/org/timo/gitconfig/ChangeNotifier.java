@@ -0,0 +1,260 @@
+package org.timo.gitconfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Collects the composed keys of changed variables and delivers them to
+ * {@link ConfigChangeListener}s on an executor. Keys changed before a delivery
+ * runs are coalesced into it, so a burst of changes results in a single call
+ * per listener.
+ *
+ * Listeners are kept in a trie of key segments, e.g. prefix "remote.origin"
+ * is stored under "remote" then "origin", so matching a key only walks its
+ * own segments whatever the number of listeners.
+ *
+ * A notifier without source configuration only records keys, to be handed
+ * over to another notifier with {@link #drainTo(ChangeNotifier)}.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class ChangeNotifier {
+
+	private static final Logger LOG = Logger.getLogger(ChangeNotifier.class
+			.getName());
+
+	private static ExecutorService defaultExecutor;
+
+	private static final class Node {
+
+		private final Map<String, Node> children = new HashMap<String, Node>();
+
+		private final List<ConfigChangeListener> listeners = new ArrayList<ConfigChangeListener>();
+
+		/**
+		 * Removes every registration of given listener from this node and
+		 * the ones below it, dropping the nodes left empty.
+		 * 
+		 * @return number of registrations removed
+		 */
+		private int remove(final ConfigChangeListener listener) {
+			int removed = 0;
+			while (listeners.remove(listener)) {
+				removed++;
+			}
+			for (final Iterator<Node> iterator = children.values().iterator(); iterator
+					.hasNext();) {
+				final Node child = iterator.next();
+				removed += child.remove(listener);
+				if (child.listeners.isEmpty() && child.children.isEmpty()) {
+					iterator.remove();
+				}
+			}
+			return removed;
+		}
+	}
+
+	private final Configuration source;
+
+	private final Node root = new Node();
+
+	private volatile int listenerCount;
+
+	private Executor executor;
+
+	private Set<String> pending = new HashSet<String>();
+
+	private boolean scheduled;
+
+	/**
+	 * @param source
+	 *            configuration reported to listeners, null to only record
+	 *            changes
+	 */
+	ChangeNotifier(final Configuration source) {
+		this.source = source;
+	}
+
+	/**
+	 * Shared executor delivering changes on a single daemon thread.
+	 */
+	private static synchronized Executor getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors
+					.newSingleThreadExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable,
+									"gitconfig-changes");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return defaultExecutor;
+	}
+
+	synchronized void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+	private static String[] split(final String composedKey) {
+		if (composedKey == null || composedKey.isEmpty()) {
+			return new String[0];
+		}
+		return composedKey.split("\\.");
+	}
+
+	/**
+	 * @param prefix
+	 *            variables path prefix, e.g. "remote" or "remote.origin", an
+	 *            empty prefix matches every variable
+	 */
+	synchronized void addListener(final String prefix,
+			final ConfigChangeListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("Null listeners are not allowed");
+		}
+		Node node = root;
+		for (final String segment : split(prefix)) {
+			Node child = node.children.get(segment);
+			if (child == null) {
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		node.listeners.add(listener);
+		listenerCount++;
+	}
+
+	/**
+	 * Removes every registration of given listener.
+	 */
+	synchronized void removeListener(final ConfigChangeListener listener) {
+		listenerCount -= root.remove(listener);
+	}
+
+	/**
+	 * @return whether any listener is registered, changes are only collected
+	 *         then
+	 */
+	boolean hasListeners() {
+		return listenerCount > 0;
+	}
+
+	void changed(final String composedKey) {
+		if (source == null || hasListeners()) {
+			synchronized (this) {
+				pending.add(composedKey);
+				schedule();
+			}
+		}
+	}
+
+	void changed(final Collection<String> composedKeys) {
+		if (!composedKeys.isEmpty() && (source == null || hasListeners())) {
+			synchronized (this) {
+				pending.addAll(composedKeys);
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Hands recorded keys over to given notifier.
+	 */
+	void drainTo(final ChangeNotifier notifier) {
+		final Set<String> keys;
+		synchronized (this) {
+			keys = pending;
+			pending = new HashSet<String>();
+		}
+		notifier.changed(keys);
+	}
+
+	private void schedule() {
+		if (source != null && !scheduled) {
+			scheduled = true;
+			final Executor target = executor == null ? getDefaultExecutor()
+					: executor;
+			try {
+				target.execute(new Runnable() {
+					@Override
+					public void run() {
+						deliver();
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				// pending keys go along with the next delivery
+				scheduled = false;
+				LOG.log(Level.WARNING, "Change delivery rejected", e);
+			}
+		}
+	}
+
+	private void deliver() {
+		final Map<ConfigChangeListener, Set<String>> matches = new IdentityHashMap<ConfigChangeListener, Set<String>>();
+		synchronized (this) {
+			for (final String key : pending) {
+				match(key, matches);
+			}
+			pending = new HashSet<String>();
+			scheduled = false;
+		}
+		for (final Entry<ConfigChangeListener, Set<String>> entry : matches
+				.entrySet()) {
+			try {
+				entry.getKey().configurationChanged(source,
+						Collections.unmodifiableSet(entry.getValue()));
+			} catch (final RuntimeException e) {
+				LOG.log(Level.WARNING, "Change listener failed", e);
+			}
+		}
+	}
+
+	private void match(final String composedKey,
+			final Map<ConfigChangeListener, Set<String>> matches) {
+		Node node = root;
+		addMatch(node, composedKey, matches);
+		for (final String segment : split(composedKey)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			addMatch(node, composedKey, matches);
+		}
+	}
+
+	private static void addMatch(final Node node, final String composedKey,
+			final Map<ConfigChangeListener, Set<String>> matches) {
+		for (final ConfigChangeListener listener : node.listeners) {
+			Set<String> keys = matches.get(listener);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				matches.put(listener, keys);
+			}
+			keys.add(composedKey);
+		}
+	}
+
+}
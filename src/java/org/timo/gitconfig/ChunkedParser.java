@@ -0,0 +1,145 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ * 
+ * Parses a mapped configuration file on the common {@link ForkJoinPool}. The
+ * buffer is split in halves at section header boundaries until chunks are
+ * small enough, each chunk is parsed into its own {@link GitConfiguration} and
+ * results are merged back in file order, so a section declared again later in
+ * the file keeps overriding earlier values. Chunk layouts are joined the same
+ * way, when the file layout is recorded.
+ * 
+ * @author Timoteo Ponce
+ * 
+ */
+class ChunkedParser extends RecursiveTask<GitConfiguration> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Minimum file size, in bytes, worth being parsed in parallel.
+	 */
+	static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 512 * 1024;
+
+	private final ByteBuffer buffer;
+
+	private final int start;
+
+	private final int end;
+
+	private final boolean recordLayout;
+
+	/**
+	 * Lines of this chunk, once computed.
+	 */
+	private SourceLayout layout;
+
+	private ChunkedParser(final ByteBuffer buffer, final int start,
+			final int end, final boolean recordLayout) {
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		this.recordLayout = recordLayout;
+	}
+
+	static GitConfiguration parse(final ByteBuffer buffer) throws IOException {
+		return parse(buffer, null);
+	}
+
+	/**
+	 * @param layout
+	 *            layout recorded from given buffer lines are added to, null if
+	 *            positions are not needed
+	 */
+	static GitConfiguration parse(final ByteBuffer buffer,
+			final SourceLayout layout) throws IOException {
+		final ChunkedParser parser = new ChunkedParser(buffer, buffer
+				.position(), buffer.limit(), layout != null);
+		try {
+			final GitConfiguration config = ForkJoinPool.commonPool().invoke(
+					parser);
+			if (layout != null) {
+				layout.append(parser.layout);
+			}
+			return config;
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.RecursiveTask#compute()
+	 */
+	@Override
+	protected GitConfiguration compute() {
+		if (end - start > CHUNK_SIZE) {
+			final int split = findSectionStart(start + (end - start) / 2);
+			if (split < end) {
+				final ChunkedParser head = new ChunkedParser(buffer, start,
+						split, recordLayout);
+				final ChunkedParser tail = new ChunkedParser(buffer, split,
+						end, recordLayout);
+				head.fork();
+				final GitConfiguration tailConfig = tail.compute();
+				final GitConfiguration config = head.join();
+				// a section may repeat in both chunks, its values add up
+				config.append(tailConfig);
+				if (recordLayout) {
+					layout = head.layout;
+					layout.append(tail.layout);
+				}
+				return config;
+			}
+		}
+		return parseChunk();
+	}
+
+	private GitConfiguration parseChunk() {
+		final ByteBuffer chunk = buffer.duplicate();
+		chunk.limit(end).position(start);
+		final GitConfiguration config = new GitConfiguration();
+		if (recordLayout) {
+			layout = new SourceLayout(buffer);
+		}
+		try {
+			FileHandler.load(new ConfigLexer(chunk), config, layout);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return config;
+	}
+
+	/**
+	 * @return offset of the first line at or after given offset that starts a
+	 *         section header, or the chunk end if there is none
+	 */
+	private int findSectionStart(int offset) {
+		while (offset < end) {
+			while (offset < end && buffer.get(offset++) != '\n') {
+				// skip to next line
+			}
+			final int lineStart = offset;
+			while (offset < end
+					&& (buffer.get(offset) == ' ' || buffer.get(offset) == '\t' || buffer
+							.get(offset) == '\r')) {
+				offset++;
+			}
+			if (offset < end && buffer.get(offset) == '[') {
+				return lineStart;
+			}
+		}
+		return end;
+	}
+
+}
@@ -0,0 +1,730 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Thread-safe {@link Configuration} for read-mostly usage. Readers never
+ * block: every read goes to the current snapshot, a {@link GitConfiguration}
+ * that is never modified once published. Writers are serialized, each one
+ * copies the current snapshot, applies its change to the copy and publishes
+ * it through a volatile write, so readers see either all of a change or none
+ * of it.
+ *
+ * Every write copies the whole configuration, batches of changes should use
+ * {@link #addVariables(Map)} or {@link #load(String)} to publish them at once.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public class ConcurrentConfiguration implements Configuration {
+
+	private final Object writeLock = new Object();
+
+	private volatile GitConfiguration snapshot;
+
+	private final ChangeNotifier notifier = new ChangeNotifier(this);
+
+	public ConcurrentConfiguration() {
+		this.snapshot = new GitConfiguration();
+	}
+
+	/**
+	 * Creates a configuration holding a copy of given one.
+	 */
+	public ConcurrentConfiguration(final GitConfiguration configuration) {
+		this.snapshot = configuration.copy();
+	}
+
+	/**
+	 * @return immutable copy of the current snapshot
+	 * @see GitConfiguration#freeze()
+	 */
+	public ImmutableConfiguration freeze() {
+		return snapshot.freeze();
+	}
+
+	/**
+	 * Copies current snapshot to apply a change on it, recording the changed
+	 * keys. Must be called holding the write lock.
+	 */
+	private GitConfiguration beginWrite() {
+		final GitConfiguration next = snapshot.copy();
+		next.setNotifier(new ChangeNotifier(null));
+		// saving to the loaded file keeps patching it, saves are serialized
+		next.setLayout(snapshot.getLayout());
+		return next;
+	}
+
+	/**
+	 * Publishes given copy as the current snapshot, then reports the keys
+	 * changed on it to listeners.
+	 */
+	private void publishSnapshot(final GitConfiguration next) {
+		final ChangeNotifier changes = next.detachNotifier();
+		snapshot = next;
+		changes.drainTo(notifier);
+	}
+
+	/**
+	 * Applies the difference between current snapshot and given
+	 * configuration, which is adopted and must not be used afterwards, and
+	 * publishes the result at once.
+	 *
+	 * @param layout
+	 *            lines of the file given configuration was read from, null if
+	 *            there is none
+	 */
+	void update(final GitConfiguration configuration, final SourceLayout layout) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.update(configuration);
+			next.setLayout(layout);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#addChangeListener(java.lang.String,
+	 * org.timo.gitconfig.ConfigChangeListener)
+	 */
+	@Override
+	public void addChangeListener(final String prefix,
+			final ConfigChangeListener listener) {
+		notifier.addListener(prefix, listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#removeChangeListener(org.timo.gitconfig
+	 * .ConfigChangeListener)
+	 */
+	@Override
+	public void removeChangeListener(final ConfigChangeListener listener) {
+		notifier.removeListener(listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#setChangeExecutor(java.util.concurrent
+	 * .Executor)
+	 */
+	@Override
+	public void setChangeExecutor(final Executor executor) {
+		notifier.setExecutor(executor);
+	}
+
+	/**
+	 * @return current snapshot, which must not be modified
+	 */
+	GitConfiguration getSnapshot() {
+		return snapshot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String)
+	 */
+	@Override
+	public String getValue(final String composedKey) {
+		return snapshot.getValue(composedKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getValue(org.timo.gitconfig.ConfigKey)
+	 */
+	@Override
+	public String getValue(final ConfigKey key) {
+		return snapshot.getValue(key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName, final String key) {
+		return snapshot.getValue(sectionName, key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName,
+			final String subSectionName, final String key) {
+		return snapshot.getValue(sectionName, subSectionName, key);
+	}
+
+	@Override
+	public Integer getInt(final String composedKey) {
+		return Integer.valueOf(TypedValue.parseInt(getValue(composedKey)));
+	}
+
+	@Override
+	public Long getLong(final String composedKey) {
+		return Long.valueOf(TypedValue.parseLong(getValue(composedKey)));
+	}
+
+	@Override
+	public Double getDouble(final String composedKey) {
+		return Double.valueOf(getValue(composedKey));
+	}
+
+	@Override
+	public Boolean getBoolean(final String composedKey) {
+		return Boolean.valueOf(TypedValue.parseBoolean(getValue(composedKey)));
+	}
+
+	@Override
+	public int getInt(final String composedKey, final int defaultValue) {
+		return TypedValue.parseInt(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public long getLong(final String composedKey, final long defaultValue) {
+		return TypedValue.parseLong(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public double getDouble(final String composedKey, final double defaultValue) {
+		return TypedValue.parseDouble(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public boolean getBoolean(final String composedKey,
+			final boolean defaultValue) {
+		return TypedValue.parseBoolean(getValue(composedKey), defaultValue);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getKeySet()
+	 */
+	@Override
+	public Set<String> getKeySet() {
+		return snapshot.getKeySet();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues()
+	 */
+	@Override
+	public Collection<String> getValues() {
+		return snapshot.getValues();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues(java.lang.String)
+	 */
+	@Override
+	public Collection<String> getValues(final String composedKey) {
+		return snapshot.getValues(composedKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables()
+	 */
+	@Override
+	public Map<String, String> getVariables() {
+		return snapshot.getVariables();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables(java.lang.String)
+	 */
+	@Override
+	public Map<String, String> getVariables(final String composedKey) {
+		return snapshot.getVariables(composedKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getVariablesWithPrefix(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> getVariablesWithPrefix(final String prefix) {
+		GitConfiguration current = snapshot;
+		if (!current.isSorted()) {
+			// published snapshots are never modified, so the sorted index is
+			// built on a new one, kept up to date by later copies
+			synchronized (writeLock) {
+				if (!snapshot.isSorted()) {
+					final GitConfiguration next = beginWrite();
+					next.sort();
+					publishSnapshot(next);
+				}
+				current = snapshot;
+			}
+		}
+		return current.getVariablesWithPrefix(prefix);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#subtree(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> subtree(final String path) {
+		return getVariablesWithPrefix(path.concat("."));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return snapshot.isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#containsVariable(java.lang.String)
+	 */
+	@Override
+	public boolean containsVariable(final String composedKey) {
+		return snapshot.containsVariable(composedKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#containsVariable(org.timo.gitconfig.
+	 * ConfigKey)
+	 */
+	@Override
+	public boolean containsVariable(final ConfigKey key) {
+		return snapshot.containsVariable(key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getTextContent()
+	 */
+	@Override
+	public String getTextContent() {
+		return snapshot.getTextContent();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#write(java.io.Writer)
+	 */
+	@Override
+	public void write(final Writer writer) throws IOException {
+		snapshot.write(writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.lang.String)
+	 */
+	@Override
+	public void save(final String fileName) throws IOException {
+		synchronized (writeLock) {
+			// patching the loaded file updates the layout snapshots share
+			snapshot.save(fileName);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.io.OutputStream)
+	 */
+	@Override
+	public void save(final OutputStream outputStream) throws IOException {
+		snapshot.save(outputStream);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		// walks the current snapshot, later changes are not seen
+		return new ConfigurationIterator(snapshot, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> spliterator() {
+		// splits the current snapshot, later changes are not seen
+		return new ConfigurationSpliterator(snapshot.getRootSections());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#stream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#parallelStream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#findByRegex(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public Stream<Entry<String, String>> findByRegex(final String nameRegex,
+			final String valueRegex) {
+		// searches the current snapshot, later changes are not seen
+		return snapshot.findByRegex(nameRegex, valueRegex);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void setValue(final String composedKey, final String value) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.setValue(composedKey, value);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String key,
+			final String value) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.setValue(sectionName, key, value);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String subSectionName,
+			final String key, final String value) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.setValue(sectionName, subSectionName, key, value);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getAll(java.lang.String)
+	 */
+	@Override
+	public List<String> getAll(final String composedKey) {
+		return snapshot.getAll(composedKey);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#add(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void add(final String composedKey, final String value) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.add(composedKey, value);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#replaceAll(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void replaceAll(final String composedKey, final String value,
+			final String valueRegex) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.replaceAll(composedKey, value, valueRegex);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#unsetAll(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void unsetAll(final String composedKey, final String valueRegex) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.unsetAll(composedKey, valueRegex);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#addVariables(java.util.Map)
+	 */
+	@Override
+	public void addVariables(final Map<String, String> variables) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.addVariables(variables);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String composedKey) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.remove(composedKey);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String key) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.remove(sectionName, key);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String subSectionName,
+			final String key) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.remove(sectionName, subSectionName, key);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.removeSection(sectionName);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName,
+			final String subSectionName) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.removeSection(sectionName, subSectionName);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String oldName, final String newName) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.renameSection(oldName, newName);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String sectionName, final String oldName,
+			final String newName) {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.renameSection(sectionName, oldName, newName);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.lang.String)
+	 */
+	@Override
+	public void load(final String fileName) throws IOException {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.load(fileName);
+			publishSnapshot(next);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.io.InputStream)
+	 */
+	@Override
+	public void load(final InputStream inputStream) throws IOException {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.load(inputStream);
+			publishSnapshot(next);
+		}
+	}
+
+	/**
+	 * Creates a transaction whose changes are applied to a single copy of
+	 * the current snapshot, published once on commit.
+	 *
+	 * @see org.timo.gitconfig.Configuration#beginTransaction()
+	 */
+	@Override
+	public ConfigTransaction beginTransaction() {
+		return new ConfigTransaction() {
+			@Override
+			void publish() {
+				synchronized (writeLock) {
+					final GitConfiguration next = beginWrite();
+					applyTo(next);
+					publishSnapshot(next);
+				}
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#clear()
+	 */
+	@Override
+	public void clear() {
+		synchronized (writeLock) {
+			final GitConfiguration next = beginWrite();
+			next.clear();
+			publishSnapshot(next);
+		}
+	}
+
+}
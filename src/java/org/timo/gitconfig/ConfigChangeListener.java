@@ -0,0 +1,31 @@
+package org.timo.gitconfig;
+
+import java.util.Set;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Receives the variables changed in a {@link Configuration}, registered
+ * through {@link Configuration#addChangeListener(String, ConfigChangeListener)}.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public interface ConfigChangeListener {
+
+	/**
+	 * Called once per batch of changes, on the configuration's change
+	 * executor. Changes happening before delivery are coalesced, so a variable
+	 * changed several times is reported once and current values must be read
+	 * from the configuration.
+	 *
+	 * @param configuration
+	 *            changed configuration
+	 * @param composedKeys
+	 *            paths of the changed, added or removed variables under the
+	 *            listener prefix. e.g. remote.origin.url
+	 */
+	void configurationChanged(Configuration configuration,
+			Set<String> composedKeys);
+
+}
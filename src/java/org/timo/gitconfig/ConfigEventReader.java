@@ -0,0 +1,170 @@
+package org.timo.gitconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Pull-style reader over a configuration source, it reports every section
+ * header, variable and comment as an {@link Event} without building any
+ * {@link Configuration}. Scanning can be stopped at any point by closing the
+ * reader. e.g.
+ *
+ * <pre>
+ * final ConfigEventReader reader = FileHandler.createEventReader(&quot;.git/config&quot;);
+ * try {
+ * 	while (reader.next() != Event.END) {
+ * 		if (reader.getEvent() == Event.VARIABLE
+ * 				&amp;&amp; &quot;remote&quot;.equals(reader.getSection())
+ * 				&amp;&amp; &quot;url&quot;.equals(reader.getKey())) {
+ * 			return reader.getValue();
+ * 		}
+ * 	}
+ * } finally {
+ * 	reader.close();
+ * }
+ * </pre>
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public class ConfigEventReader implements Closeable {
+
+	public enum Event {
+		/**
+		 * A section header, e.g. [remote "origin"]
+		 */
+		SECTION_START,
+		/**
+		 * A variable declaration, e.g. url = git://host/repo.git
+		 */
+		VARIABLE,
+		/**
+		 * A comment line, e.g. # comment or ; comment
+		 */
+		COMMENT,
+		/**
+		 * End of the source, no more events follow.
+		 */
+		END
+	}
+
+	private final ConfigLexer lexer;
+
+	private final Closeable source;
+
+	private Event event;
+
+	ConfigEventReader(final ConfigLexer lexer, final Closeable source) {
+		this.lexer = lexer;
+		this.source = source;
+		this.lexer.setReportComments(true);
+	}
+
+	/**
+	 * @return true until {@link Event#END} has been reached
+	 */
+	public boolean hasNext() {
+		return event != Event.END;
+	}
+
+	/**
+	 * Advances to the next event of the source.
+	 *
+	 * @return the new current event, {@link Event#END} once the source is
+	 *         exhausted
+	 * @throws IOException
+	 *             if the source can't be read
+	 * @throws IllegalArgumentException
+	 *             if the source contains a malformed declaration
+	 */
+	public Event next() throws IOException {
+		if (event != Event.END) {
+			switch (lexer.next()) {
+			case ConfigLexer.SECTION:
+				event = Event.SECTION_START;
+				break;
+			case ConfigLexer.VARIABLE:
+				event = Event.VARIABLE;
+				break;
+			case ConfigLexer.COMMENT:
+				event = Event.COMMENT;
+				break;
+			default:
+				event = Event.END;
+			}
+		}
+		return event;
+	}
+
+	/**
+	 * @return current event, or null if {@link #next()} hasn't been called yet
+	 */
+	public Event getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return name of the section the current event belongs to
+	 */
+	public String getSection() {
+		return lexer.getSection();
+	}
+
+	/**
+	 * @return name of the sub-section the current event belongs to, or null
+	 *         if the section has none
+	 */
+	public String getSubSection() {
+		return lexer.getSubSection();
+	}
+
+	/**
+	 * @return key of the current {@link Event#VARIABLE}
+	 */
+	public String getKey() {
+		return lexer.getKey();
+	}
+
+	/**
+	 * @return value of the current {@link Event#VARIABLE}
+	 */
+	public String getValue() {
+		return lexer.getValue();
+	}
+
+	/**
+	 * @return text of the current {@link Event#COMMENT}, without the comment
+	 *         character
+	 */
+	public String getComment() {
+		return lexer.getComment();
+	}
+
+	/**
+	 * @return offset in bytes where the current event begins in the source
+	 */
+	public long getPosition() {
+		return lexer.getPosition();
+	}
+
+	/**
+	 * @return line number, starting at 1, where the current event begins
+	 */
+	public int getLine() {
+		return lexer.getLine();
+	}
+
+	/**
+	 * Releases the underlying source, no more events will be reported.
+	 */
+	@Override
+	public void close() throws IOException {
+		event = Event.END;
+		if (source != null) {
+			source.close();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.timo.gitconfig;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Variable path resolved once into its section, sub-section and key, so it
+ * can be looked up repeatedly without splitting or allocating. Keys are
+ * immutable and meant to be kept in constants, e.g.
+ *
+ * <pre>
+ * private static final ConfigKey ORIGIN_URL = ConfigKey.of(&quot;remote.origin.url&quot;);
+ * ...
+ * final String url = config.getValue(ORIGIN_URL);
+ * </pre>
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public final class ConfigKey {
+
+	private final String composedKey;
+
+	private final String sectionName;
+
+	private final String subSectionName;
+
+	private final String key;
+
+	private ConfigKey(final String composedKey, final String sectionName,
+			final String subSectionName, final String key) {
+		this.composedKey = composedKey;
+		this.sectionName = sectionName;
+		this.subSectionName = subSectionName;
+		this.key = key;
+		// String caches its hash, computing it now spares the first lookup
+		composedKey.hashCode();
+	}
+
+	/**
+	 * Resolves given variable path.
+	 *
+	 * @param composedKey
+	 *            variable path. e.g. core.editor or remote.origin.url
+	 * @return key handle
+	 * @throws IllegalArgumentException
+	 *             if path has less than two names
+	 */
+	public static ConfigKey of(final String composedKey) {
+		final String[] keys = composedKey.split("\\.");
+		if (keys.length < 2) {
+			throw new IllegalArgumentException("Invalid variable key : "
+					+ composedKey);
+		}
+		if (keys.length > 2) {
+			return new ConfigKey(composedKey, keys[0], keys[1], keys[2]);
+		}
+		return new ConfigKey(composedKey, keys[0], null, keys[1]);
+	}
+
+	public String getSectionName() {
+		return sectionName;
+	}
+
+	/**
+	 * @return sub-section name, or null if variable belongs to a root section
+	 */
+	public String getSubSectionName() {
+		return subSectionName;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	@Override
+	public int hashCode() {
+		return composedKey.hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof ConfigKey
+				&& composedKey.equals(((ConfigKey) obj).composedKey);
+	}
+
+	/**
+	 * @return variable path this key was resolved from
+	 */
+	@Override
+	public String toString() {
+		return composedKey;
+	}
+
+}
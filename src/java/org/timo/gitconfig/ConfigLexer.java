@@ -0,0 +1,427 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Single-pass lexer for configuration files. Bytes are consumed strictly
+ * forward, either straight from a (memory-mapped) {@link ByteBuffer} or from a
+ * {@link ReadableByteChannel} through a fixed buffer, producing one token per
+ * section header or variable declaration:
+ *
+ * <pre>
+ * # comment            -> COMMENT (text), when comments are reported
+ * ; comment            -> COMMENT (text), when comments are reported
+ * [section]            -> SECTION (section)
+ * [section 'sub']      -> SECTION (section, sub)
+ * [section "sub"]      -> SECTION (section, sub)
+ * [section.sub]        -> SECTION (section, sub)
+ * key = value          -> VARIABLE (section, sub, key, value)
+ * key = value ; note   -> VARIABLE (section, sub, key, value)
+ * key                  -> VARIABLE (section, sub, key, "true")
+ * </pre>
+ *
+ * Keys are trimmed, values follow git's rules: everything after the first '='
+ * up to an unquoted '#' or ';', which starts an inline comment, with blanks
+ * around it dropped. Double quotes are removed and keep blanks, '#' and ';'
+ * as they are; a backslash escapes '"', '\', 'n', 't' and 'b', or continues
+ * the value on the next line. {@link FileHandler#quote(String)} writes values
+ * back the same way. Input is expected in UTF-8 (or plain ASCII): every
+ * structural character is ASCII, so only the bytes of names, keys and values
+ * are ever decoded.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class ConfigLexer {
+
+	static final int END = -1;
+
+	static final int SECTION = 1;
+
+	static final int VARIABLE = 2;
+
+	static final int COMMENT = 3;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final ByteBuffer buffer;
+
+	private final ReadableByteChannel channel;
+
+	private long base;
+
+	private int line = 1;
+
+	private long tokenPosition;
+
+	private long tokenEnd;
+
+	private long valueEnd;
+
+	private int tokenLine;
+
+	private boolean reportComments;
+
+	private byte[] token = new byte[128];
+
+	private int tokenLength;
+
+	private String section;
+
+	private String subSection;
+
+	private String key;
+
+	private String value;
+
+	private String comment;
+
+	/**
+	 * Creates a lexer reading the remaining bytes of given buffer.
+	 */
+	ConfigLexer(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.channel = null;
+	}
+
+	/**
+	 * Creates a lexer streaming given channel through a fixed buffer.
+	 */
+	ConfigLexer(final ReadableByteChannel channel) {
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.flip();
+		this.channel = channel;
+	}
+
+	/**
+	 * Enables or disables {@link #COMMENT} tokens, comments are skipped by
+	 * default.
+	 */
+	void setReportComments(final boolean reportComments) {
+		this.reportComments = reportComments;
+	}
+
+	/**
+	 * Advances to the next token.
+	 *
+	 * @return {@link #SECTION}, {@link #VARIABLE}, {@link #COMMENT} or
+	 *         {@link #END}
+	 * @throws IOException
+	 *             if the underlying channel fails
+	 */
+	int next() throws IOException {
+		int c;
+		while ((c = skipWhitespace()) != -1) {
+			tokenPosition = position() - 1;
+			tokenLine = line;
+			if (c == '#' || c == ';') {
+				if (reportComments) {
+					comment = readValue(skipBlanks());
+					return COMMENT;
+				}
+				skipLine();
+			} else if (c == '[') {
+				readSection();
+				tokenEnd = position();
+				return SECTION;
+			} else {
+				readVariable(c);
+				tokenEnd = position();
+				return VARIABLE;
+			}
+		}
+		tokenPosition = position();
+		tokenEnd = tokenPosition;
+		tokenLine = line;
+		return END;
+	}
+
+	/**
+	 * Advances to the next section header, skipping any variable or comment
+	 * without decoding it.
+	 *
+	 * @return {@link #SECTION} or {@link #END}
+	 * @throws IOException
+	 *             if the underlying channel fails
+	 */
+	int nextSection() throws IOException {
+		int c;
+		while ((c = skipWhitespace()) != -1) {
+			if (c == '[') {
+				tokenPosition = position() - 1;
+				tokenLine = line;
+				readSection();
+				tokenEnd = position();
+				return SECTION;
+			}
+			skipLine();
+		}
+		tokenPosition = position();
+		tokenEnd = tokenPosition;
+		tokenLine = line;
+		return END;
+	}
+
+	/**
+	 * @return offset, in bytes from the start of the input, where the current
+	 *         token begins
+	 */
+	long getPosition() {
+		return tokenPosition;
+	}
+
+	/**
+	 * @return offset right after the current token: after the closing bracket
+	 *         of a section header, after the line break ending a variable
+	 */
+	long getEnd() {
+		return tokenEnd;
+	}
+
+	/**
+	 * @return offset right after the value of the current variable, or after
+	 *         its key if it has none, i.e. where its inline comment or line
+	 *         break starts
+	 */
+	long getValueEnd() {
+		return valueEnd;
+	}
+
+	/**
+	 * @return line number, starting at 1, where the current token begins
+	 */
+	int getLine() {
+		return tokenLine;
+	}
+
+	String getSection() {
+		return section;
+	}
+
+	/**
+	 * @return current sub-section name, or null when the current section has
+	 *         none
+	 */
+	String getSubSection() {
+		return subSection;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	String getValue() {
+		return value;
+	}
+
+	String getComment() {
+		return comment;
+	}
+
+	private long position() {
+		return base + buffer.position();
+	}
+
+	private int read() throws IOException {
+		if (!buffer.hasRemaining()) {
+			if (channel == null) {
+				return -1;
+			}
+			base += buffer.limit();
+			buffer.clear();
+			final int count = channel.read(buffer);
+			buffer.flip();
+			if (count <= 0) {
+				return -1;
+			}
+		}
+		final int c = buffer.get() & 0xFF;
+		if (c == '\n') {
+			line++;
+		}
+		return c;
+	}
+
+	private static boolean isWhitespace(final int c) {
+		return c <= ' ' && c != -1;
+	}
+
+	private int skipWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (isWhitespace(c));
+		return c;
+	}
+
+	private int skipBlanks() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c != '\n' && isWhitespace(c));
+		return c;
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c != -1 && c != '\n');
+	}
+
+	private void append(final int c) {
+		if (tokenLength == token.length) {
+			final byte[] grown = new byte[tokenLength * 2];
+			System.arraycopy(token, 0, grown, 0, tokenLength);
+			token = grown;
+		}
+		token[tokenLength++] = (byte) c;
+	}
+
+	private String decode(final int offset, final int length) {
+		return new String(token, offset, length, FileHandler.CHARSET);
+	}
+
+	// [ sectionName *'subSectionName' ]
+	private void readSection() throws IOException {
+		tokenLength = 0;
+		int dot = -1;
+		int c = skipBlanks();
+		while (c != -1 && c != ']' && c != '"' && c != '\''
+				&& !isWhitespace(c)) {
+			if (c == '.' && dot == -1) {
+				dot = tokenLength;
+			}
+			append(c);
+			c = read();
+		}
+		if (isWhitespace(c)) {
+			c = skipBlanks();
+		}
+		if (dot > 0) {
+			section = decode(0, dot);
+			subSection = decode(dot + 1, tokenLength - dot - 1);
+		} else {
+			section = decode(0, tokenLength);
+			subSection = null;
+		}
+		if (c == '"' || c == '\'') {
+			subSection = readQuoted(c);
+			c = skipBlanks();
+		}
+		if (c != ']' || section.length() == 0) {
+			throw new IllegalArgumentException(
+					"Unreadable section declaration [ sectionName *'subSectionName'] : ["
+							+ section);
+		}
+	}
+
+	private String readQuoted(final int quote) throws IOException {
+		tokenLength = 0;
+		int c;
+		while ((c = read()) != quote) {
+			if (c == -1 || c == '\n') {
+				throw new IllegalArgumentException(
+						"Unterminated sub-section name : "
+								+ decode(0, tokenLength));
+			}
+			if (c == '\\') {
+				c = read();
+			}
+			append(c);
+		}
+		return decode(0, tokenLength);
+	}
+
+	// key = value
+	private void readVariable(int c) throws IOException {
+		if (section == null) {
+			skipLine();
+			throw new IllegalArgumentException(
+					"Variable declared outside of any section");
+		}
+		tokenLength = 0;
+		int trimmed = 0;
+		while (c != -1 && c != '\n' && c != '=') {
+			append(c);
+			if (!isWhitespace(c)) {
+				trimmed = tokenLength;
+				valueEnd = position();
+			}
+			c = read();
+		}
+		key = decode(0, trimmed);
+		if (c == '=') {
+			valueEnd = position();
+			value = readVariableValue(skipBlanks());
+		} else {
+			value = "true";
+		}
+	}
+
+	private String readValue(int c) throws IOException {
+		tokenLength = 0;
+		int trimmed = 0;
+		while (c != -1 && c != '\n') {
+			append(c);
+			if (!isWhitespace(c)) {
+				trimmed = tokenLength;
+			}
+			c = read();
+		}
+		return decode(0, trimmed);
+	}
+
+	// value *( '"' quoted '"' / '\' escape ) [ ( '#' / ';' ) comment ]
+	private String readVariableValue(int c) throws IOException {
+		tokenLength = 0;
+		int trimmed = 0;
+		boolean quoted = false;
+		while (c != -1 && c != '\n') {
+			if (!quoted && (c == '#' || c == ';')) {
+				skipLine();
+				break;
+			}
+			if (!quoted && isWhitespace(c)) {
+				// inner blanks are kept as spaces, trailing ones are dropped
+				if (tokenLength > 0) {
+					append(' ');
+				}
+			} else {
+				if (c == '"') {
+					quoted = !quoted;
+				} else if (c == '\\') {
+					c = read();
+					if (c == 'n') {
+						append('\n');
+					} else if (c == 't') {
+						append('\t');
+					} else if (c == 'b') {
+						append('\b');
+					} else if (c == '"' || c == '\\') {
+						append(c);
+					} else if (c != '\n' && c != -1) {
+						throw new IllegalArgumentException(
+								"Invalid escape sequence in value : "
+										+ decode(0, tokenLength));
+					}
+				} else {
+					append(c);
+				}
+				trimmed = tokenLength;
+				valueEnd = position();
+			}
+			c = read();
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unterminated quoted value : "
+					+ decode(0, tokenLength));
+		}
+		return decode(0, trimmed);
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.timo.gitconfig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ * 
+ * Precompiled binary image of a configuration, stamped with the modification
+ * time and size of the text file it was built from. Layout, all numbers are
+ * big-endian:
+ * 
+ * <pre>
+ * int magic 'GCS1', int version
+ * long source modification time, long source size
+ * int sectionCount, sectionCount x [int nameIndex, int recordOffset]
+ * int stringCount, (stringCount + 1) x int stringOffset
+ * byte[] UTF-8 strings
+ * records: int variableCount, variableCount x [int keyIndex, int valueIndex]
+ *          int subSectionCount, subSectionCount x [int nameIndex, variables]
+ * </pre>
+ * 
+ * Snapshots are memory-mapped and work as a {@link SectionSource}: only root
+ * section names are decoded when opening one, every other string is decoded
+ * the first time its section is loaded.
+ * 
+ * @author Timoteo Ponce
+ * 
+ */
+class ConfigSnapshot implements SectionSource {
+
+	private static final int MAGIC = 0x47435331;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 24;
+
+	private final ByteBuffer buffer;
+
+	private final Map<String, Integer> recordOffsets = new HashMap<String, Integer>();
+
+	private final String[] strings;
+
+	private final int stringOffsetsStart;
+
+	private final int stringsStart;
+
+	private ConfigSnapshot(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		final int sectionCount = buffer.getInt(HEADER_SIZE);
+		final int sectionsStart = HEADER_SIZE + 4;
+		final int stringCountOffset = sectionsStart + sectionCount * 8;
+		strings = new String[buffer.getInt(stringCountOffset)];
+		stringOffsetsStart = stringCountOffset + 4;
+		stringsStart = stringOffsetsStart + (strings.length + 1) * 4;
+		final int recordsStart = stringsStart + stringOffset(strings.length);
+		for (int i = 0; i < sectionCount; i++) {
+			final int entry = sectionsStart + i * 8;
+			recordOffsets.put(getString(buffer.getInt(entry)), recordsStart
+					+ buffer.getInt(entry + 4));
+		}
+	}
+
+	/**
+	 * Maps given snapshot if it is up to date with its source file.
+	 * 
+	 * @return opened snapshot, or null if it is missing, was written by
+	 *         another version or is older than source file
+	 */
+	static ConfigSnapshot open(final Path snapshot, final Path source)
+			throws IOException {
+		if (!Files.exists(snapshot) || !Files.exists(source)) {
+			return null;
+		}
+		final ByteBuffer buffer;
+		final FileChannel channel = FileChannel.open(snapshot,
+				StandardOpenOption.READ);
+		try {
+			if (channel.size() < HEADER_SIZE + 4
+					|| channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != lastModified(source)
+				|| buffer.getLong(16) != Files.size(source)) {
+			return null;
+		}
+		return new ConfigSnapshot(buffer);
+	}
+
+	/**
+	 * Writes a snapshot of given sections, stamped with current modification
+	 * time and size of source file. The snapshot is written aside and then
+	 * moved in place, so snapshots already mapped are never modified.
+	 */
+	static void write(final Collection<RootSection> rootSections,
+			final Path snapshot, final Path source) throws IOException {
+		final StringTable table = new StringTable();
+		final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		final DataOutputStream records = new DataOutputStream(recordBytes);
+		final ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+		final DataOutputStream sections = new DataOutputStream(sectionBytes);
+
+		for (final RootSection rootSection : rootSections) {
+			sections.writeInt(table.indexOf(rootSection.getName()));
+			sections.writeInt(records.size());
+			writeVariables(records, rootSection, table);
+			records.writeInt(rootSection.getSections().size());
+			for (final Section section : rootSection.getSections()) {
+				records.writeInt(table.indexOf(section.getName()));
+				writeVariables(records, section, table);
+			}
+		}
+		final Path temporary = snapshot.resolveSibling(snapshot.getFileName()
+				+ ".tmp");
+		final DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporary)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(lastModified(source));
+			output.writeLong(Files.size(source));
+			output.writeInt(rootSections.size());
+			sectionBytes.writeTo(output);
+			table.writeTo(output);
+			recordBytes.writeTo(output);
+		} finally {
+			output.close();
+		}
+		Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeVariables(final DataOutputStream records,
+			final Section section, final StringTable table) throws IOException {
+		// a multi-valued variable takes a record per value
+		int count = 0;
+		for (final String key : section.getKeySet()) {
+			final String[] values = section.getRepeatedValues(key);
+			count += values == null ? 1 : values.length;
+		}
+		records.writeInt(count);
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			final String[] values = section.getRepeatedValues(entry.getKey());
+			if (values == null) {
+				records.writeInt(table.indexOf(entry.getKey()));
+				records.writeInt(table.indexOf(entry.getValue()));
+			} else {
+				for (final String value : values) {
+					records.writeInt(table.indexOf(entry.getKey()));
+					records.writeInt(table.indexOf(value));
+				}
+			}
+		}
+	}
+
+	private static long lastModified(final Path path) throws IOException {
+		return Files.getLastModifiedTime(path).toMillis();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.SectionSource#getSectionNames()
+	 */
+	@Override
+	public Collection<String> getSectionNames() {
+		return recordOffsets.keySet();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.SectionSource#loadSection(java.lang.String,
+	 * org.timo.gitconfig.RootSection)
+	 */
+	@Override
+	public void loadSection(final String sectionName, final RootSection target) {
+		final Integer recordOffset = recordOffsets.get(sectionName);
+		if (recordOffset != null) {
+			// multi-valued records add up, then replace the values target
+			// already holds
+			final RootSection loaded = new RootSection(sectionName);
+			int offset = loadVariables(recordOffset, loaded);
+			final int subSectionCount = buffer.getInt(offset);
+			offset += 4;
+			for (int i = 0; i < subSectionCount; i++) {
+				final Section section = loaded.getOrCreateSection(getString(buffer
+						.getInt(offset)));
+				offset = loadVariables(offset + 4, section);
+			}
+			target.merge(loaded);
+		}
+	}
+
+	private int loadVariables(int offset, final Section target) {
+		final int variableCount = buffer.getInt(offset);
+		offset += 4;
+		for (int i = 0; i < variableCount; i++) {
+			target.addVariable(getString(buffer.getInt(offset)),
+					getString(buffer.getInt(offset + 4)));
+			offset += 8;
+		}
+		return offset;
+	}
+
+	private int stringOffset(final int index) {
+		return buffer.getInt(stringOffsetsStart + index * 4);
+	}
+
+	private String getString(final int index) {
+		String string = strings[index];
+		if (string == null) {
+			final int start = stringOffset(index);
+			final byte[] bytes = new byte[stringOffset(index + 1) - start];
+			final ByteBuffer slice = buffer.duplicate();
+			slice.position(stringsStart + start);
+			slice.get(bytes);
+			string = new String(bytes, FileHandler.CHARSET);
+			strings[index] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * Assigns an index to every distinct string while writing a snapshot.
+	 */
+	private static final class StringTable {
+
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private final ByteArrayOutputStream offsetBytes = new ByteArrayOutputStream();
+
+		private final DataOutputStream offsets = new DataOutputStream(
+				offsetBytes);
+
+		int indexOf(final String string) throws IOException {
+			Integer index = indexes.get(string);
+			if (index == null) {
+				index = indexes.size();
+				indexes.put(string, index);
+				offsets.writeInt(bytes.size());
+				bytes.write(string.getBytes(FileHandler.CHARSET));
+			}
+			return index;
+		}
+
+		void writeTo(final DataOutputStream output) throws IOException {
+			output.writeInt(indexes.size());
+			offsetBytes.writeTo(output);
+			output.writeInt(bytes.size());
+			bytes.writeTo(output);
+		}
+	}
+
+}
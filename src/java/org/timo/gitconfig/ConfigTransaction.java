@@ -0,0 +1,277 @@
+package org.timo.gitconfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Batch of changes applied to a {@link Configuration} as a whole. Changes are
+ * only recorded until {@link #commit()} is called, then they are applied at
+ * once: readers of the configuration see either all of them or none. e.g.
+ *
+ * <pre>
+ * config.beginTransaction()
+ * 		.setValue(&quot;remote.origin.url&quot;, &quot;git://host/repo.git&quot;)
+ * 		.setValue(&quot;remote.origin.fetch&quot;, &quot;+refs/heads/*:refs/remotes/origin/*&quot;)
+ * 		.commit();
+ * </pre>
+ *
+ * A transaction can be committed or rolled back only once.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public abstract class ConfigTransaction {
+
+	private abstract static class Operation {
+		abstract void apply(Configuration configuration);
+	}
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+
+	private boolean finished;
+
+	ConfigTransaction() {
+	}
+
+	private ConfigTransaction add(final Operation operation) {
+		if (finished) {
+			throw new IllegalStateException("Transaction already finished");
+		}
+		operations.add(operation);
+		return this;
+	}
+
+	private static void checkValue(final String value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed");
+		}
+	}
+
+	/**
+	 * @see Configuration#setValue(String, String)
+	 */
+	public ConfigTransaction setValue(final String composedKey,
+			final String value) {
+		checkValue(value);
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.setValue(composedKey, value);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#setValue(String, String, String)
+	 */
+	public ConfigTransaction setValue(final String sectionName,
+			final String key, final String value) {
+		checkValue(value);
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.setValue(sectionName, key, value);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#setValue(String, String, String, String)
+	 */
+	public ConfigTransaction setValue(final String sectionName,
+			final String subSectionName, final String key, final String value) {
+		checkValue(value);
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.setValue(sectionName, subSectionName, key, value);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#add(String, String)
+	 */
+	public ConfigTransaction add(final String composedKey, final String value) {
+		checkValue(value);
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.add(composedKey, value);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#replaceAll(String, String, String)
+	 */
+	public ConfigTransaction replaceAll(final String composedKey,
+			final String value, final String valueRegex) {
+		checkValue(value);
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.replaceAll(composedKey, value, valueRegex);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#unsetAll(String, String)
+	 */
+	public ConfigTransaction unsetAll(final String composedKey,
+			final String valueRegex) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.unsetAll(composedKey, valueRegex);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#remove(String)
+	 */
+	public ConfigTransaction remove(final String composedKey) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.remove(composedKey);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#remove(String, String)
+	 */
+	public ConfigTransaction remove(final String sectionName, final String key) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.remove(sectionName, key);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#remove(String, String, String)
+	 */
+	public ConfigTransaction remove(final String sectionName,
+			final String subSectionName, final String key) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.remove(sectionName, subSectionName, key);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#removeSection(String)
+	 */
+	public ConfigTransaction removeSection(final String sectionName) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.removeSection(sectionName);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#removeSection(String, String)
+	 */
+	public ConfigTransaction removeSection(final String sectionName,
+			final String subSectionName) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.removeSection(sectionName, subSectionName);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#renameSection(String, String)
+	 */
+	public ConfigTransaction renameSection(final String oldName,
+			final String newName) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.renameSection(oldName, newName);
+			}
+		});
+	}
+
+	/**
+	 * @see Configuration#renameSection(String, String, String)
+	 */
+	public ConfigTransaction renameSection(final String sectionName,
+			final String oldName, final String newName) {
+		return add(new Operation() {
+			@Override
+			void apply(final Configuration configuration) {
+				configuration.renameSection(sectionName, oldName, newName);
+			}
+		});
+	}
+
+	/**
+	 * Applies every recorded change to the configuration at once.
+	 *
+	 * @throws IllegalStateException
+	 *             if transaction was already committed or rolled back
+	 */
+	public void commit() {
+		if (finished) {
+			throw new IllegalStateException("Transaction already finished");
+		}
+		finished = true;
+		if (!operations.isEmpty()) {
+			publish();
+		}
+	}
+
+	/**
+	 * Discards every recorded change.
+	 *
+	 * @throws IllegalStateException
+	 *             if transaction was already committed or rolled back
+	 */
+	public void rollback() {
+		if (finished) {
+			throw new IllegalStateException("Transaction already finished");
+		}
+		finished = true;
+		operations.clear();
+	}
+
+	/**
+	 * Publishes the recorded changes to the configuration this transaction
+	 * belongs to, usually through {@link #applyTo(Configuration)}.
+	 */
+	abstract void publish();
+
+	/**
+	 * Records the changes of given transaction after the ones of this one.
+	 */
+	ConfigTransaction addAll(final ConfigTransaction transaction) {
+		for (final Operation operation : transaction.operations) {
+			add(operation);
+		}
+		return this;
+	}
+
+	/**
+	 * Applies the recorded changes in order to given configuration.
+	 */
+	void applyTo(final Configuration configuration) {
+		for (final Operation operation : operations) {
+			operation.apply(configuration);
+		}
+	}
+
+}
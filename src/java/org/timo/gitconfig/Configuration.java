@@ -4,10 +4,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 import java.util.Map.Entry;
 
 /**
@@ -51,6 +56,16 @@ public interface Configuration extends Iterable<Entry<String, String>> {
 	 * @return value of variable or an empty string if not present
 	 */
 	String getValue(String composedKey);
+
+	/**
+	 * Retrieves a given variable value from configuration related to given
+	 * precompiled variable path, no key splitting is done.
+	 * 
+	 * @param key
+	 *            variable path. e.g. ConfigKey.of("core.editor")
+	 * @return value of variable or an empty string if not present
+	 */
+	String getValue(ConfigKey key);
 	
 	Integer getInt(String composedKey);
 	
@@ -59,6 +74,39 @@ public interface Configuration extends Iterable<Entry<String, String>> {
 	Double getDouble(String composedKey);
 	
 	Boolean getBoolean(String composedKey);	
+
+	/**
+	 * Retrieves a given variable as a number, an optional suffix of k, m or g
+	 * multiplies it by 1024, 1048576 or 1073741824.
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. core.packedGitLimit
+	 * @param defaultValue
+	 *            value returned if variable is not present
+	 * @throws NumberFormatException
+	 *             if variable is not a number fitting an int
+	 */
+	int getInt(String composedKey, int defaultValue);
+
+	/**
+	 * Same as {@link #getInt(String, int)} for long values.
+	 */
+	long getLong(String composedKey, long defaultValue);
+
+	double getDouble(String composedKey, double defaultValue);
+
+	/**
+	 * Retrieves a given variable as a boolean: true, yes, on and non zero
+	 * numbers are true, false, no, off and zero are false (case ignored).
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. core.bare
+	 * @param defaultValue
+	 *            value returned if variable is not present
+	 * @throws IllegalArgumentException
+	 *             if variable is not a boolean
+	 */
+	boolean getBoolean(String composedKey, boolean defaultValue);
 	
 
 	/**
@@ -279,6 +327,49 @@ public interface Configuration extends Iterable<Entry<String, String>> {
 	 */
 	String getTextContent();
 
+	/**
+	 * Starts recording a batch of changes, which are applied at once when
+	 * the returned transaction is committed.
+	 * 
+	 * @return a new transaction over this configuration
+	 */
+	ConfigTransaction beginTransaction();
+
+	/**
+	 * Registers a listener for changes of variables under given path, made
+	 * through this configuration or by reloading it. Changes are delivered
+	 * asynchronously, on the executor set by
+	 * {@link #setChangeExecutor(Executor)}.
+	 * 
+	 * @param prefix
+	 *            variables path prefix. e.g. remote or remote.origin, an empty
+	 *            prefix matches every variable
+	 * @param listener
+	 *            listener to call
+	 */
+	void addChangeListener(String prefix, ConfigChangeListener listener);
+
+	/**
+	 * Unregisters given listener from every prefix it was registered for.
+	 */
+	void removeChangeListener(ConfigChangeListener listener);
+
+	/**
+	 * Sets the executor change listeners are called on, by default they are
+	 * called on a shared daemon thread.
+	 */
+	void setChangeExecutor(Executor executor);
+
+	/**
+	 * Writes configuration content, formatted as it will be stored in
+	 * configuration file, section by section to given writer. The writer is
+	 * neither flushed nor closed.
+	 * 
+	 * @param writer
+	 *            target of text-formatted configuration content
+	 */
+	void write(Writer writer) throws IOException;
+
 	/**
 	 * Writes configuration values in a given file, this option will override
 	 * any previous configuration.
@@ -312,4 +403,116 @@ public interface Configuration extends Iterable<Entry<String, String>> {
 
 	boolean containsVariable(String composedKey);
 
+	boolean containsVariable(ConfigKey key);
+
+	/**
+	 * Retrieves every value of a variable, in order. A variable repeated in a
+	 * file or added with {@link #add(String, String)} holds several values,
+	 * the other getters return its last one.
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. remote.origin.fetch
+	 * @return values of variable, empty if not present
+	 */
+	List<String> getAll(String composedKey);
+
+	/**
+	 * Adds a value to a variable, keeping its current values. e.g. another
+	 * fetch refspec of a remote.
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. remote.origin.fetch
+	 * @param value
+	 *            value added after the current ones
+	 */
+	void add(String composedKey, String value);
+
+	/**
+	 * Replaces the values of a variable matching given regular expression with
+	 * a single value, added after the values left.
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. remote.origin.fetch
+	 * @param value
+	 *            new value
+	 * @param valueRegex
+	 *            regular expression searched in current values, or null to
+	 *            replace all of them
+	 */
+	void replaceAll(String composedKey, String value, String valueRegex);
+
+	/**
+	 * Removes the values of a variable matching given regular expression.
+	 * 
+	 * @param composedKey
+	 *            variable path. e.g. remote.origin.fetch
+	 * @param valueRegex
+	 *            regular expression searched in current values, or null to
+	 *            remove all of them
+	 */
+	void unsetAll(String composedKey, String valueRegex);
+
+	/**
+	 * Returns the variables whose path starts with given prefix, sorted by
+	 * path. e.g. "remote." returns the variables of every remote, while
+	 * "remote.o" also matches remotes named 'origin' or 'other'.
+	 * 
+	 * The returned map is a read-only view found with a single search on a
+	 * sorted index, it is never copied. Thread-safe implementations return
+	 * the matching variables at call time instead of a live view.
+	 * 
+	 * @param prefix
+	 *            start of variable paths, an empty prefix matches every
+	 *            variable
+	 * @return read-only map of variable paths to values
+	 */
+	SortedMap<String, String> getVariablesWithPrefix(String prefix);
+
+	/**
+	 * Returns the variables under given section path, at any depth. e.g.
+	 * "branch" returns the variables of every branch, "branch.master" the ones
+	 * of branch 'master'.
+	 * 
+	 * @param path
+	 *            section path
+	 * @return read-only map of variable paths to values, as
+	 *         {@link #getVariablesWithPrefix(String)} with path followed by a
+	 *         dot
+	 */
+	SortedMap<String, String> subtree(String path);
+
+	/**
+	 * Finds the variables whose path matches given regular expression and
+	 * whose value matches the optional value expression, as git config
+	 * --get-regexp. Expressions are searched anywhere in paths and values
+	 * unless anchored, e.g. "^remote\..*\.url$" with value "github".
+	 * 
+	 * Matches are streamed as they are found, and a name expression anchored
+	 * with a literal prefix skips every section not starting with it.
+	 * 
+	 * @param nameRegex
+	 *            regular expression for variable paths
+	 * @param valueRegex
+	 *            regular expression for values, or null to match any value
+	 * @return stream of matching variables, keyed by variable path
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if any expression is invalid
+	 */
+	Stream<Entry<String, String>> findByRegex(String nameRegex,
+			String valueRegex);
+
+	/**
+	 * @return sequential stream of all variables, keyed by variable path. e.g.
+	 *         core.editor
+	 */
+	Stream<Entry<String, String>> stream();
+
+	/**
+	 * Parallel stream of all variables, split along section boundaries so
+	 * each thread works on whole sections.
+	 * 
+	 * @return parallel stream of all variables, keyed by variable path
+	 */
+	Stream<Entry<String, String>> parallelStream();
+
 }
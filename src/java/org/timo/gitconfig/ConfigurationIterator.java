@@ -1,46 +1,196 @@
 package org.timo.gitconfig;
 
-import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
 /**
  * Copyright (C) 2010 Timoteo Ponce
- * 
+ *
+ * Cursor over the variables of a {@link GitConfiguration}, walking its root
+ * sections, then the variables and sub-sections of each one, directly over
+ * their maps. Composed keys are only built when an entry key is requested.
+ *
+ * Removed variables are taken out of the configuration being iterated, or
+ * out of a removal target when the iterated configuration is a snapshot of
+ * it. Iterating bare root sections does not support removal.
+ *
  * @author Timoteo Ponce
- * 
+ *
  */
 public class ConfigurationIterator implements Iterator<Entry<String, String>> {
 
-	private final Configuration configuration;
+	/**
+	 * Entry whose composed key is built on demand from its section path.
+	 */
+	private static final class VariableEntry implements Entry<String, String> {
 
-	private final Iterator<String> keySetIterator;
+		private final String path;
 
-	private String currentKey;
+		private final Entry<String, String> variable;
 
-	public ConfigurationIterator(final Configuration configuration) {
+		private String composedKey;
+
+		private VariableEntry(final String path,
+				final Entry<String, String> variable) {
+			this.path = path;
+			this.variable = variable;
+		}
+
+		@Override
+		public String getKey() {
+			if (composedKey == null) {
+				composedKey = path.concat(variable.getKey());
+			}
+			return composedKey;
+		}
+
+		@Override
+		public String getValue() {
+			return variable.getValue();
+		}
+
+		@Override
+		public String setValue(final String value) {
+			throw new UnsupportedOperationException(
+					"Use Configuration.setValue instead");
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Entry)) {
+				return false;
+			}
+			final Entry<?, ?> other = (Entry<?, ?>) obj;
+			return getKey().equals(other.getKey())
+					&& getValue().equals(other.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	private final GitConfiguration configuration;
+
+	private final Configuration target;
+
+	private final Iterator<RootSection> rootSections;
+
+	private RootSection rootSection;
+
+	private Iterator<Section> sections = Collections.<Section> emptySet()
+			.iterator();
+
+	private Section section;
+
+	private String path;
+
+	private Iterator<Entry<String, String>> variables = Collections
+			.<Entry<String, String>> emptySet().iterator();
+
+	private RootSection currentRootSection;
+
+	private Section currentSection;
+
+	private String currentPath;
+
+	private Iterator<Entry<String, String>> currentVariables;
+
+	private Entry<String, String> current;
+
+	/**
+	 * Iterates given configuration, removing variables from it.
+	 */
+	public ConfigurationIterator(final GitConfiguration configuration) {
+		this(configuration, configuration);
+	}
+
+	/**
+	 * Iterates given configuration, removing variables from given target
+	 * instead. Used to iterate a snapshot of the target, which must not change
+	 * meanwhile.
+	 */
+	ConfigurationIterator(final GitConfiguration configuration,
+			final Configuration target) {
+		this(configuration, target, configuration.getRootSections()
+				.iterator());
+	}
+
+	/**
+	 * Iterates the variables of given root sections, without removal support.
+	 */
+	ConfigurationIterator(final Iterator<RootSection> rootSections) {
+		this(null, null, rootSections);
+	}
+
+	private ConfigurationIterator(final GitConfiguration configuration,
+			final Configuration target, final Iterator<RootSection> rootSections) {
 		this.configuration = configuration;
-		this.keySetIterator = this.configuration.getKeySet().iterator();
+		this.target = target;
+		this.rootSections = rootSections;
 	}
 
 	@Override
 	public boolean hasNext() {
-		return keySetIterator.hasNext();
+		while (!variables.hasNext()) {
+			if (sections.hasNext()) {
+				section = sections.next();
+				path = GitConfiguration.getPath(rootSection.getName(), section
+						.getName());
+			} else if (rootSections.hasNext()) {
+				rootSection = rootSections.next();
+				sections = rootSection.getSections().iterator();
+				section = rootSection;
+				path = GitConfiguration.getPath(rootSection.getName(), null);
+			} else {
+				return false;
+			}
+			variables = section.getVariableIterator();
+		}
+		return true;
 	}
 
 	@Override
 	public Entry<String, String> next() {
-		currentKey = keySetIterator.next();
-		final String value = configuration.getValue(currentKey);
-		return new AbstractMap.SimpleEntry(currentKey, value);
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		current = variables.next();
+		currentRootSection = rootSection;
+		currentSection = section;
+		currentPath = path;
+		currentVariables = variables;
+		return new VariableEntry(path, current);
 	}
 
 	@Override
 	public void remove() {
-		if (currentKey != null && !currentKey.isEmpty()) {
-			configuration.remove(currentKey);
-			currentKey = null;
+		if (target == null) {
+			throw new UnsupportedOperationException(
+					"Variables can't be removed through this iterator");
+		}
+		if (current == null) {
+			throw new IllegalStateException("No variable to remove");
+		}
+		final String key = current.getKey();
+		if (target == configuration) {
+			currentVariables.remove();
+			configuration.variableRemoved(currentPath.concat(key));
+		} else if (currentSection == currentRootSection) {
+			target.remove(currentRootSection.getName(), key);
+		} else {
+			target.remove(currentRootSection.getName(), currentSection
+					.getName(), key);
 		}
+		current = null;
 	}
 
 }
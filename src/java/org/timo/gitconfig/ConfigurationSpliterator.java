@@ -0,0 +1,143 @@
+package org.timo.gitconfig;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Map.Entry;
+import java.util.function.Consumer;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * {@link Spliterator} over the variables of a set of root sections. Splits
+ * happen along root section boundaries, halving the number of variables left
+ * rather than the number of sections, so parallel streams get balanced work
+ * even when a few sections hold most variables.
+ *
+ * Variable counts per section are summed once up front, so the size of every
+ * split is exact without copying any variable. Sections must not change while
+ * they are traversed.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class ConfigurationSpliterator implements Spliterator<Entry<String, String>> {
+
+	private final RootSection[] rootSections;
+
+	/**
+	 * Number of variables in the root sections before each index, with one
+	 * extra element holding the total.
+	 */
+	private final long[] offsets;
+
+	private int origin;
+
+	private final int fence;
+
+	private Iterator<Entry<String, String>> cursor;
+
+	private long consumed;
+
+	ConfigurationSpliterator(final Collection<RootSection> rootSections) {
+		this.rootSections = rootSections.toArray(new RootSection[rootSections
+				.size()]);
+		this.offsets = new long[this.rootSections.length + 1];
+		for (int i = 0; i < this.rootSections.length; i++) {
+			offsets[i + 1] = offsets[i] + this.rootSections[i].getAllSize();
+		}
+		this.origin = 0;
+		this.fence = this.rootSections.length;
+	}
+
+	private ConfigurationSpliterator(final RootSection[] rootSections,
+			final long[] offsets, final int origin, final int fence) {
+		this.rootSections = rootSections;
+		this.offsets = offsets;
+		this.origin = origin;
+		this.fence = fence;
+	}
+
+	private Iterator<Entry<String, String>> getCursor() {
+		if (cursor == null) {
+			cursor = new ConfigurationIterator(Arrays.asList(rootSections)
+					.subList(origin, fence).iterator());
+		}
+		return cursor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+	 */
+	@Override
+	public boolean tryAdvance(final Consumer<? super Entry<String, String>> action) {
+		final Iterator<Entry<String, String>> iterator = getCursor();
+		if (iterator.hasNext()) {
+			consumed++;
+			action.accept(iterator.next());
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Spliterator#forEachRemaining(java.util.function.Consumer)
+	 */
+	@Override
+	public void forEachRemaining(
+			final Consumer<? super Entry<String, String>> action) {
+		final Iterator<Entry<String, String>> iterator = getCursor();
+		while (iterator.hasNext()) {
+			consumed++;
+			action.accept(iterator.next());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Spliterator#trySplit()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> trySplit() {
+		if (cursor != null || fence - origin < 2) {
+			return null;
+		}
+		// first section boundary past half of the remaining variables
+		final long half = offsets[origin] + estimateSize() / 2;
+		int split = Arrays.binarySearch(offsets, origin + 1, fence, half);
+		if (split < 0) {
+			split = Math.min(-split - 1, fence - 1);
+		}
+		final ConfigurationSpliterator prefix = new ConfigurationSpliterator(
+				rootSections, offsets, origin, split);
+		origin = split;
+		return prefix;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Spliterator#estimateSize()
+	 */
+	@Override
+	public long estimateSize() {
+		return offsets[fence] - offsets[origin] - consumed;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.Spliterator#characteristics()
+	 */
+	@Override
+	public int characteristics() {
+		return SIZED | SUBSIZED | NONNULL | DISTINCT;
+	}
+
+}
@@ -1,18 +1,24 @@
 package org.timo.gitconfig;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.util.StringTokenizer;
-import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Copyright (C) 2010 Timoteo Ponce
@@ -22,131 +28,314 @@ import java.util.regex.Pattern;
  */
 public class FileHandler {
 
-	private static final Logger LOG = Logger.getLogger(FileHandler.class
-			.getName());
-
-	private static final String COMMENT_CHARS = "#;";
+	/**
+	 * Encoding of configuration files.
+	 */
+	static final Charset CHARSET = Charset.forName("UTF-8");
 
-	private static final Pattern SECTION_PATTERN = Pattern
-			.compile("(\\w)*[^\\s'\"\\[\\]]");
+	private static final int BUFFER_SIZE = 8192;
 
 	public static Configuration loadConfiguration(final String fileName)
 			throws IOException {
-		final Configuration config = new GitConfiguration();
-		Reader reader = null;
-		BufferedReader bufferedReader = null;
+		return loadConfiguration(Paths.get(fileName));
+	}
+
+	/**
+	 * Loads a configuration file by memory-mapping it and scanning its bytes
+	 * directly, only names, keys and values are decoded into strings. Files
+	 * bigger than {@link ChunkedParser#PARALLEL_THRESHOLD} are split at
+	 * section headers and parsed in parallel.
+	 * 
+	 * Included files are loaded along, "gitdir:" conditions hold for the
+	 * repository holding the file, if it is found within a ".git" directory.
+	 * 
+	 * @param path
+	 *            configuration source file
+	 * @return loaded configuration
+	 * @throws FileNotFoundException
+	 *             if file does not exist
+	 * @see IncludeResolver
+	 */
+	public static Configuration loadConfiguration(final Path path)
+			throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		load(path, config);
+		return config;
+	}
+
+	/**
+	 * Loads a configuration file along with its includes, matching
+	 * "gitdir:" conditions against given repository directory.
+	 * 
+	 * @param gitDir
+	 *            repository directory, null if there is none
+	 * @see #loadConfiguration(Path)
+	 */
+	public static Configuration loadConfiguration(final Path path,
+			final Path gitDir) throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		load(path, config, gitDir);
+		return config;
+	}
+
+	public static Configuration loadConfiguration(final InputStream inputStream)
+			throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		load(inputStream, config);
+		return config;
+	}
+
+	/**
+	 * Parses given file straight into target configuration, overriding its
+	 * variables when they are present in file.
+	 * 
+	 * @throws FileNotFoundException
+	 *             if file does not exist
+	 */
+	static void load(final Path path, final GitConfiguration config)
+			throws IOException {
+		load(path, config, IncludeResolver.getGitDir(path));
+	}
+
+	private static void load(final Path path, final GitConfiguration config,
+			final Path gitDir) throws IOException {
+		if (config.hasSections()) {
+			// values of the file replace current ones, instead of adding up
+			final GitConfiguration loaded = new GitConfiguration();
+			load(path, loaded, gitDir);
+			config.merge(loaded);
+			config.setLayout(loaded.getLayout());
+			return;
+		}
+		SourceLayout layout = parse(path, config);
+		if (IncludeResolver.hasIncludes(config)) {
+			// included variables go where their directive is, the file is
+			// laid out again around its directives
+			config.update(new IncludeResolver(gitDir).resolve(path));
+			// included variables would be written into the including file
+			layout = null;
+		}
+		config.setLayout(layout);
+	}
+
+	/**
+	 * @return lines of the parsed file, or null if it is too large to be
+	 *         mapped
+	 */
+	private static SourceLayout parse(final Path path,
+			final GitConfiguration config) throws IOException {
+		final FileChannel channel = open(path);
 		try {
-			reader = new FileReader(fileName);
-			bufferedReader = new BufferedReader(reader);
-			load(bufferedReader, config);
-		} finally {
-			if (bufferedReader != null) {
-				bufferedReader.close();
-				reader.close();
+			// taken before reading, a change meanwhile makes the layout stale
+			final long lastModified = Files.getLastModifiedTime(path)
+					.toMillis();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				load(new ConfigLexer(channel), config);
+				return null;
+			}
+			final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+			final SourceLayout layout = new SourceLayout(buffer);
+			if (size >= ChunkedParser.PARALLEL_THRESHOLD) {
+				config.merge(ChunkedParser.parse(buffer, layout));
+			} else {
+				load(new ConfigLexer(buffer.duplicate()), config, layout);
 			}
+			layout.attach(path, lastModified, size);
+			return layout;
+		} finally {
+			channel.close();
 		}
-		return config;
 	}
 
-	private static void load(final BufferedReader bufferedReader,
-			final Configuration config) throws IOException {
-		String line;
-		while ((line = bufferedReader.readLine()) != null) {
-			line = line.trim();
-			if (isNotEmpty(line)) {
-				final String sectionPath = readSection(line, config);
-				readVariables(bufferedReader, sectionPath, config);
+	/**
+	 * Parses given input straight into target configuration, overriding its
+	 * variables when they are present in input.
+	 */
+	static void load(final InputStream inputStream,
+			final GitConfiguration config) throws IOException {
+		if (config.hasSections()) {
+			// values of the input replace current ones, instead of adding up
+			final GitConfiguration loaded = new GitConfiguration();
+			load(inputStream, loaded);
+			config.merge(loaded);
+			return;
+		}
+		ReadableByteChannel channel = null;
+		try {
+			channel = Channels.newChannel(inputStream);
+			load(new ConfigLexer(channel), config);
+		} finally {
+			if (channel != null) {
+				channel.close();
 			}
 		}
 	}
 
-	private static boolean isNotEmpty(final String line) {
-		return line.length() > 0 && COMMENT_CHARS.indexOf(line.charAt(0)) == -1;
+	/**
+	 * Creates an {@link ConfigEventReader} over given file, which will be
+	 * memory-mapped while the reader is open.
+	 * 
+	 * @param fileName
+	 *            configuration source file
+	 * @throws FileNotFoundException
+	 *             if file does not exist
+	 */
+	public static ConfigEventReader createEventReader(final String fileName)
+			throws IOException {
+		final FileChannel channel = open(Paths.get(fileName));
+		try {
+			return new ConfigEventReader(createLexer(channel), channel);
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
 	}
 
-	private static String readSection(final String line,
-			final Configuration config) {
-		LOG.info("Reading section from line : " + line);
-		if (line.startsWith("[") && line.endsWith("]")) {
-			final Matcher matcher = SECTION_PATTERN.matcher(line);
-			matcher.find();// find the first match
-			final String sectionName = matcher.group().trim();
+	/**
+	 * Creates an {@link ConfigEventReader} streaming given input, closing the
+	 * reader closes the stream.
+	 * 
+	 * @param inputStream
+	 *            configuration source
+	 */
+	public static ConfigEventReader createEventReader(
+			final InputStream inputStream) {
+		final ReadableByteChannel channel = Channels.newChannel(inputStream);
+		return new ConfigEventReader(new ConfigLexer(channel), channel);
+	}
 
-			final boolean isSubSection = matcher.find();
-			// [ sectionName 'subSection' ]
-			String sectionPath = sectionName;
-			if (isSubSection) {
-				final String subSection = matcher.group().trim();
-				sectionPath += "." + subSection;
-				LOG.info("Reading subSection: " + sectionName + "->"
-						+ subSection);
-			} else {
-				LOG.info("Reading section: " + sectionName);
+	/**
+	 * Maps given file and indexes its section headers, sections are parsed
+	 * only when loaded from the returned source.
+	 * 
+	 * @param path
+	 *            configuration source file
+	 * @throws FileNotFoundException
+	 *             if file does not exist
+	 */
+	static SectionSource indexSections(final Path path) throws IOException {
+		final FileChannel channel = open(path);
+		try {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be indexed : " + path);
 			}
-			config.setValue(sectionPath, "", "");
-			return sectionPath;
-		} else {
-			throw new IllegalArgumentException(
-					"Unreadable section declaration [ sectionName *'subSectionName'] :"
-							+ line);
+			return new SectionIndex(channel.map(MapMode.READ_ONLY, 0, size));
+		} finally {
+			channel.close();
 		}
 	}
 
+	static FileChannel open(final Path path) throws IOException {
+		try {
+			return FileChannel.open(path, StandardOpenOption.READ);
+		} catch (final NoSuchFileException e) {
+			throw new FileNotFoundException(path.toString());
+		}
+	}
+
+	static ConfigLexer createLexer(final FileChannel channel)
+			throws IOException {
+		final long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			return new ConfigLexer(channel);
+		}
+		return new ConfigLexer(channel.map(MapMode.READ_ONLY, 0, size));
+	}
+
 	/**
-	 * @param bufferedReader
-	 * @param section
-	 * @throws IOException
+	 * Writes every variable into its target section, which is only resolved
+	 * once per section header. Headers without variables create no section.
+	 * Repeated keys add up into multi-valued variables, so target must not
+	 * hold any variable yet.
 	 */
-	private static void readVariables(final BufferedReader bufferedReader,
-			final String sectionPath, final Configuration config)
+	static void load(final ConfigLexer lexer, final GitConfiguration config)
 			throws IOException {
-		final StringBuilder variablesBuffer = new StringBuilder();
-		String line;
-		while ((line = bufferedReader.readLine()) != null) {
-			line = line.trim();
-			if (isNotEmpty(line)) {
-				if (line.startsWith("[")) {
-					final String localSection = readSection(line, config);
-					readVariables(bufferedReader, localSection, config);
-				} else {
-					variablesBuffer.append(line + "\n");
+		load(lexer, config, null);
+	}
+
+	/**
+	 * Loads variables as {@link #load(ConfigLexer, GitConfiguration)} does,
+	 * recording the position of every header and variable into given layout.
+	 * 
+	 * @param layout
+	 *            target layout, null if positions are not needed
+	 */
+	static void load(final ConfigLexer lexer, final GitConfiguration config,
+			final SourceLayout layout) throws IOException {
+		Section section = null;
+		String path = null;
+		int token;
+		while ((token = lexer.next()) != ConfigLexer.END) {
+			if (token == ConfigLexer.SECTION) {
+				section = null;
+				if (layout != null) {
+					layout.addHeader(lexer);
 				}
+			} else if (token == ConfigLexer.VARIABLE
+					&& lexer.getKey().length() > 0) {
+				if (layout != null) {
+					layout.addVariable(lexer);
+				}
+				if (section == null) {
+					section = config.getOrCreateSection(lexer.getSection(),
+							lexer.getSubSection());
+					path = GitConfiguration.getPath(lexer.getSection(), lexer
+							.getSubSection());
+				}
+				config.addVariable(section, path, lexer.getKey(), lexer
+						.getValue());
 			}
 		}
-		// variable = value
-		final StringTokenizer tokenizer = new StringTokenizer(
-				variablesBuffer.toString(), "\n=");
-
-		while (tokenizer.hasMoreTokens()) {
-			final String key = sectionPath + "." + tokenizer.nextToken().trim();
-			config.setValue(key, tokenizer.nextToken().trim());
-		}
 	}
 
-	public static Configuration loadConfiguration(final InputStream inputStream)
-			throws IOException {
-		final Configuration config = new GitConfiguration();
-		Reader reader = null;
-		BufferedReader bufferedReader = null;
-		try {
-			reader = new InputStreamReader(inputStream);
-			bufferedReader = new BufferedReader(reader);
-			load(bufferedReader, config);
-		} finally {
-			if (bufferedReader != null) {
-				bufferedReader.close();
-				reader.close();
+	/**
+	 * Formats given value the way {@link ConfigLexer} reads it back: '"', '\\'
+	 * and line breaks, tabs and backspaces are escaped, and the whole value is
+	 * quoted if it holds a comment character, another control character, or
+	 * starts or ends with a blank.
+	 */
+	static String quote(final String value) {
+		final int length = value.length();
+		boolean quoted = length > 0
+				&& (value.charAt(0) == ' ' || value.charAt(length - 1) == ' ');
+		StringBuilder escaped = null;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			final String escape;
+			if (c == '"') {
+				escape = "\\\"";
+			} else if (c == '\\') {
+				escape = "\\\\";
+			} else if (c == '\n') {
+				escape = "\\n";
+			} else if (c == '\t') {
+				escape = "\\t";
+			} else if (c == '\b') {
+				escape = "\\b";
+			} else {
+				quoted |= c == '#' || c == ';' || c < ' ';
+				if (escaped != null) {
+					escaped.append(c);
+				}
+				continue;
+			}
+			if (escaped == null) {
+				escaped = new StringBuilder(length + 8).append(value, 0, i);
 			}
+			escaped.append(escape);
 		}
-		return config;
+		final String text = escaped == null ? value : escaped.toString();
+		return quoted ? '"' + text + '"' : text;
 	}
 
 	public static void save(final String fileName, final Configuration config)
 			throws IOException {
-		FileWriter writer = null;
+		Writer writer = null;
 		try {
-			writer = new FileWriter(fileName);
-			writer.append(config.getTextContent());
+			writer = Files.newBufferedWriter(Paths.get(fileName), CHARSET);
+			config.write(writer);
 		} finally {
 			if (writer != null) {
 				writer.close();
@@ -156,10 +345,11 @@ public class FileHandler {
 
 	public static void save(final OutputStream outputStream,
 			final Configuration config) throws IOException {
-		OutputStreamWriter writer = null;
+		Writer writer = null;
 		try {
-			writer = new OutputStreamWriter(outputStream);
-			writer.append(config.getTextContent());
+			writer = new BufferedWriter(new OutputStreamWriter(outputStream,
+					CHARSET));
+			config.write(writer);
 		} finally {
 			if (writer != null) {
 				writer.close();
@@ -167,4 +357,24 @@ public class FileHandler {
 		}
 	}
 
+	/**
+	 * Writes configuration content to given channel through a fixed encoding
+	 * buffer, the channel is closed afterwards.
+	 * 
+	 * @param channel
+	 *            target channel
+	 * @param config
+	 *            configuration to save
+	 */
+	public static void save(final WritableByteChannel channel,
+			final Configuration config) throws IOException {
+		final Writer writer = Channels.newWriter(channel, CHARSET.newEncoder(),
+				BUFFER_SIZE);
+		try {
+			config.write(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
 }
@@ -1,17 +1,33 @@
 package org.timo.gitconfig;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Copyright (C) 2010 Timoteo Ponce
@@ -26,6 +42,41 @@ public class GitConfiguration implements Configuration {
 
 	private final Map<String, RootSection> rootSectionsMap = new HashMap<String, RootSection>();
 
+	/**
+	 * Flat index of variable values by composed key, e.g. "remote.origin.url".
+	 * It only holds correct values, a key missing here is looked up in
+	 * rootSectionsMap.
+	 */
+	private final Map<String, String> variableIndex = new HashMap<String, String>();
+
+	/**
+	 * Parsed values by composed key, an entry is only valid while its source
+	 * is the very same string currently held by the variable.
+	 */
+	private final Map<String, TypedValue> typedValues = new HashMap<String, TypedValue>();
+
+	/**
+	 * Every loaded variable value sorted by composed key, for prefix queries.
+	 * Null until the first query, then kept up to date along variableIndex.
+	 */
+	private NavigableMap<String, String> sortedIndex;
+
+	private final Set<String> pendingSections = new HashSet<String>();
+
+	private SectionSource sectionSource;
+
+	/**
+	 * Receives the composed key of every changed variable, null until a
+	 * change listener is added.
+	 */
+	private ChangeNotifier notifier;
+
+	/**
+	 * Lines of the file this configuration was loaded from, null if it was
+	 * not loaded from a file or no longer mirrors it.
+	 */
+	private SourceLayout layout;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -33,6 +84,7 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Set<String> getKeySet() {
+		loadPendingSections();
 		final Set<String> keySet = new HashSet<String>();
 		for (final Entry<String, RootSection> entry : rootSectionsMap
 				.entrySet()) {
@@ -48,53 +100,96 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public String getTextContent() {
-		final StringBuilder builder = new StringBuilder();
-		for (final Entry<String, RootSection> entry : rootSectionsMap
-				.entrySet()) {
-			appendSection(builder, entry.getValue());
+		final StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#write(java.io.Writer)
+	 */
+	@Override
+	public void write(final Writer writer) throws IOException {
+		loadPendingSections();
+		for (final RootSection rootSection : rootSectionsMap.values()) {
+			writeSection(writer, rootSection);
 		}
-		return builder.toString();
 	}
 
 	/**
-	 * @param builder
+	 * @param writer
 	 * @param rootSection
 	 */
-	private void appendSection(final StringBuilder builder,
-			final RootSection rootSection) {
+	private void writeSection(final Writer writer,
+			final RootSection rootSection) throws IOException {
 		if (!rootSection.isEmpty()) {
-			builder.append("[" + rootSection.getName() + "] \n");
+			writeHeader(writer, rootSection.getName(), null);
 		}
-		appendVariables(builder, rootSection);
-		appendSubSections(builder, rootSection);
+		writeVariables(writer, rootSection);
+		writeSubSections(writer, rootSection);
 	}
 
 	/**
-	 * @param builder
+	 * @param subSectionName
+	 *            sub-section name, or null for a root section header
+	 */
+	static void writeHeader(final Writer writer, final String sectionName,
+			final String subSectionName) throws IOException {
+		writer.write('[');
+		writer.write(sectionName);
+		if (subSectionName != null) {
+			writer.write(" '");
+			writer.write(subSectionName);
+			writer.write('\'');
+		}
+		writer.write("] \n");
+	}
+
+	private static void writeVariable(final Writer writer, final String key,
+			final String value) throws IOException {
+		writer.write("\t\t ");
+		writer.write(key);
+		writer.write(" = ");
+		writer.write(FileHandler.quote(value));
+		writer.write('\n');
+	}
+
+	/**
+	 * @param writer
 	 * @param section
 	 */
-	private void appendVariables(final StringBuilder builder,
-			final Section section) {
-		for (final Entry<String, String> entry : section.getVariables()
-				.entrySet()) {
-			builder.append("\t\t " + entry.getKey() + " = " + entry.getValue()
-					+ "\n");
+	static void writeVariables(final Writer writer, final Section section)
+			throws IOException {
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			final String[] values = section.getRepeatedValues(entry.getKey());
+			if (values == null) {
+				writeVariable(writer, entry.getKey(), entry.getValue());
+			} else {
+				for (final String value : values) {
+					writeVariable(writer, entry.getKey(), value);
+				}
+			}
 		}
-		if (section.getVariables().size() > 0) {
-			builder.append("\n");
+		if (!section.isEmpty()) {
+			writer.write('\n');
 		}
 	}
 
 	/**
-	 * @param builder
+	 * @param writer
 	 * @param rootSection
 	 */
-	private void appendSubSections(final StringBuilder builder,
-			final RootSection rootSection) {
+	private void writeSubSections(final Writer writer,
+			final RootSection rootSection) throws IOException {
 		for (final Section section : rootSection.getSections()) {
-			builder.append("[" + rootSection.getName() + " '"
-					+ section.getName() + "'] \n");
-			appendVariables(builder, section);
+			writeHeader(writer, rootSection.getName(), section.getName());
+			writeVariables(writer, section);
 		}
 	}
 
@@ -105,11 +200,20 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public String getValue(final String composedKey) {
-		final String[] keys = splitKeys(composedKey);
-		if (keys.length < 2) {
+		final String value = variableIndex.get(composedKey);
+		if (value != null) {
+			return value;
+		}
+		final int names = countNames(composedKey);
+		if (names < 2) {
 			throw new IllegalArgumentException("Invalid variable key : "
 					+ composedKey);
 		}
+		if (names <= 3 && pendingSections.isEmpty()) {
+			// every loaded variable is indexed, the key is just not present
+			return "";
+		}
+		final String[] keys = splitKeys(composedKey);
 		final String rootSection = keys[0];
 		if (keys.length > 2) {
 			return getValue(rootSection, keys[1], keys[2]);
@@ -118,12 +222,42 @@ public class GitConfiguration implements Configuration {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#getValue(org.timo.gitconfig.ConfigKey)
+	 */
+	@Override
+	public String getValue(final ConfigKey key) {
+		final String value = variableIndex.get(key.toString());
+		if (value != null) {
+			return value;
+		}
+		if (key.getSubSectionName() == null) {
+			return getValue(key.getSectionName(), key.getKey());
+		}
+		return getValue(key.getSectionName(), key.getSubSectionName(), key
+				.getKey());
+	}
+
 	/* (non-Javadoc)
 	 * @see org.timo.gitconfig.Configuration#getBoolean(java.lang.String)
 	 */
 	@Override
 	public Boolean getBoolean(final String composedKey) {		
-		return Boolean.valueOf(getValue(composedKey));
+		return Boolean.valueOf(getTypedValue(composedKey).getBoolean());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.timo.gitconfig.Configuration#getBoolean(java.lang.String, boolean)
+	 */
+	@Override
+	public boolean getBoolean(final String composedKey,
+			final boolean defaultValue) {
+		final String value = getValue(composedKey);
+		return value.isEmpty() ? defaultValue : getTypedValue(composedKey,
+				value).getBoolean();
 	}
 
 	/* (non-Javadoc)
@@ -131,7 +265,17 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Double getDouble(final String composedKey) {
-		return Double.valueOf(getValue(composedKey));
+		return Double.valueOf(getTypedValue(composedKey).getDouble());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.timo.gitconfig.Configuration#getDouble(java.lang.String, double)
+	 */
+	@Override
+	public double getDouble(final String composedKey, final double defaultValue) {
+		final String value = getValue(composedKey);
+		return value.isEmpty() ? defaultValue : getTypedValue(composedKey,
+				value).getDouble();
 	}
 
 	/* (non-Javadoc)
@@ -139,7 +283,17 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Integer getInt(final String composedKey) {		
-		return Integer.parseInt(getValue(composedKey));
+		return Integer.valueOf(getTypedValue(composedKey).getInt());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.timo.gitconfig.Configuration#getInt(java.lang.String, int)
+	 */
+	@Override
+	public int getInt(final String composedKey, final int defaultValue) {
+		final String value = getValue(composedKey);
+		return value.isEmpty() ? defaultValue : getTypedValue(composedKey,
+				value).getInt();
 	}
 
 	/* (non-Javadoc)
@@ -147,7 +301,62 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Long getLong(final String composedKey) {
-		return Long.valueOf(getValue(composedKey));
+		return Long.valueOf(getTypedValue(composedKey).getLong());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.timo.gitconfig.Configuration#getLong(java.lang.String, long)
+	 */
+	@Override
+	public long getLong(final String composedKey, final long defaultValue) {
+		final String value = getValue(composedKey);
+		return value.isEmpty() ? defaultValue : getTypedValue(composedKey,
+				value).getLong();
+	}
+
+	private TypedValue getTypedValue(final String composedKey) {
+		final String value = getValue(composedKey);
+		if (value.isEmpty()) {
+			// missing keys are not cached, there may be any number of them
+			return new TypedValue(value);
+		}
+		return getTypedValue(composedKey, value);
+	}
+
+	/**
+	 * Returns the cached parsed forms of a variable, they are only created
+	 * again when the variable value has changed.
+	 * 
+	 * @param value
+	 *            current value of the variable, not empty
+	 */
+	private TypedValue getTypedValue(final String composedKey,
+			final String value) {
+		TypedValue typedValue = typedValues.get(composedKey);
+		if (typedValue == null || typedValue.getSource() != value) {
+			typedValue = new TypedValue(value);
+			typedValues.put(composedKey, typedValue);
+		}
+		return typedValue;
+	}
+
+	/**
+	 * @return number of names {@link #splitKeys(String)} would return for
+	 *         given key, counted without splitting it
+	 */
+	private static int countNames(final String composedKey) {
+		int end = composedKey.length();
+		// trailing empty names are dropped by the split
+		while (end > 0 && composedKey.charAt(end - 1) == '.') {
+			end--;
+		}
+		int names = 1;
+		for (int i = 0; i < end; i++) {
+			if (composedKey.charAt(i) == '.') {
+				names++;
+			}
+		}
+		return names;
 	}
 
 	/**
@@ -167,7 +376,7 @@ public class GitConfiguration implements Configuration {
 	@Override
 	public String getValue(final String sectionName,
 			final String subSectionName, final String key) {
-		final RootSection rootSection = rootSectionsMap.get(sectionName);
+		final RootSection rootSection = getRootSection(sectionName);
 		String value = "";
 		if (rootSection != null
 				&& rootSection.getSection(subSectionName) != null) {
@@ -185,7 +394,12 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public String getValue(final String sectionName, final String key) {
-		final RootSection rootSection = rootSectionsMap.get(sectionName);
+		final int dot = sectionName.indexOf('.');
+		if (dot != -1) {
+			return getValue(sectionName.substring(0, dot), sectionName
+					.substring(dot + 1), key);
+		}
+		final RootSection rootSection = getRootSection(sectionName);
 		String value = "";
 		if (rootSection != null) {
 			value = rootSection.getVariable(key);
@@ -200,6 +414,7 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Collection<String> getValues() {
+		loadPendingSections();
 		final Collection<String> values = new ArrayList<String>();
 		for (final RootSection rootSection : rootSectionsMap.values()) {
 			values.addAll(rootSection.getAllValues());
@@ -216,7 +431,7 @@ public class GitConfiguration implements Configuration {
 	public Collection<String> getValues(final String composedKey) {
 		final String[] keys = splitKeys(composedKey);
 		final Collection<String> values = new ArrayList<String>();
-		final RootSection rootSection = rootSectionsMap.get(keys[0]);
+		final RootSection rootSection = getRootSection(keys[0]);
 
 		if (rootSection != null) {
 			if (keys.length == 1) {
@@ -260,9 +475,9 @@ public class GitConfiguration implements Configuration {
 		if (keys.length > 1) {
 			remove(keys[0], keys[1], key);
 		} else {
-			final RootSection rootSection = rootSectionsMap.get(sectionName);
+			final RootSection rootSection = getRootSection(sectionName);
 			if (rootSection != null) {
-				rootSection.removeVariable(key);
+				removeVariable(rootSection, getPath(sectionName, null), key);
 			}
 		}
 	}
@@ -276,11 +491,11 @@ public class GitConfiguration implements Configuration {
 	@Override
 	public void remove(final String sectionName, final String subSectionName,
 			final String key) {
-		final RootSection rootSection = rootSectionsMap.get(sectionName);
+		final RootSection rootSection = getRootSection(sectionName);
 		if (rootSection != null
 				&& rootSection.getSection(subSectionName) != null) {
 			final Section section = rootSection.getSection(subSectionName);
-			section.removeVariable(key);
+			removeVariable(section, getPath(sectionName, subSectionName), key);
 		}
 	}
 
@@ -295,8 +510,39 @@ public class GitConfiguration implements Configuration {
 		if (keys.length == 2) {
 			removeSection(keys[0], keys[1]);
 		} else {
+			discardPendingSection(sectionName);
+			removeRootSection(sectionName);
+		}
+	}
+
+	/**
+	 * Removes a root section along with its sub-sections, keeping the
+	 * variables index updated.
+	 * 
+	 * @return removed section, or null if not present
+	 */
+	RootSection removeRootSection(final String sectionName) {
+		final RootSection rootSection = getRootSection(sectionName);
+		if (rootSection != null) {
 			rootSectionsMap.remove(sectionName);
+			unindexSection(rootSection, true);
 		}
+		return rootSection;
+	}
+
+	/**
+	 * @return whether any section is present or pending
+	 */
+	boolean hasSections() {
+		return !rootSectionsMap.isEmpty() || !pendingSections.isEmpty();
+	}
+
+	/**
+	 * @return all root sections, with every pending section already loaded
+	 */
+	Collection<RootSection> getRootSections() {
+		loadPendingSections();
+		return rootSectionsMap.values();
 	}
 
 	/*
@@ -307,8 +553,13 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public void removeSection(final String sectionName, final String subSection) {
-		final RootSection rootSection = rootSectionsMap.get(sectionName);
-		rootSection.removeSection(subSection);
+		final RootSection rootSection = getRootSection(sectionName);
+		if (rootSection != null) {
+			final Section section = rootSection.removeSection(subSection);
+			if (section != null) {
+				unindexVariables(getPath(sectionName, subSection), section, true);
+			}
+		}
 	}
 
 	/*
@@ -323,12 +574,15 @@ public class GitConfiguration implements Configuration {
 		if (keys.length > 1) {
 			renameSection(keys[0], keys[1], newName);
 		} else {
-			final RootSection rootSection = rootSectionsMap.remove(oldName);
+			final RootSection rootSection = getRootSection(oldName);
 			if (rootSection != null) {
+				unindexSection(rootSection, true);
+				rootSectionsMap.remove(oldName);
+				discardPendingSection(newName);
 				rootSection.setName(newName);
 				LOG.info("Renaming section '" + oldName + "' to '" + newName
 						+ "'");
-				rootSectionsMap.put(newName, rootSection);
+				putSection(rootSection);
 			}
 		}
 	}
@@ -343,20 +597,24 @@ public class GitConfiguration implements Configuration {
 	public void renameSection(final String sectionName, final String oldName,
 			final String newName) {
 		final String[] names = splitKeys(newName);
-		final RootSection rootSection = rootSectionsMap.get(sectionName);
+		final RootSection rootSection = getRootSection(sectionName);
 		if (rootSection != null && rootSection.getSection(oldName) != null) {
 			LOG.info("Renaming sub-section '" + sectionName + "." + oldName
 					+ "' to '" + newName + "'");
+			unindexSection(rootSection, true);
 			final Section section = rootSection.removeSection(oldName);
 			if (names.length == 1) {
 				section.setName(names[0]);
+				rootSection.setSection(section);
+				indexSection(rootSection, true);
 			} else {
 				rootSectionsMap.remove(rootSection.getName());
+				discardPendingSection(names[0]);
 				rootSection.setName(names[0]);
 				section.setName(names[1]);
-				rootSectionsMap.put(rootSection.getName(), rootSection);
+				rootSection.setSection(section);
+				putSection(rootSection);
 			}
-			rootSection.setSection(section);
 		}
 	}
 
@@ -392,9 +650,15 @@ public class GitConfiguration implements Configuration {
 		if (value == null) {
 			throw new NullPointerException("Null values are not allowed");
 		}
+		final int dot = sectionName.indexOf('.');
+		if (dot != -1) {
+			setValue(sectionName.substring(0, dot), sectionName
+					.substring(dot + 1), key, value);
+			return;
+		}
 		final RootSection rootSection = getOrCreateSection(sectionName);
 		if (key.length() > 0) {
-			rootSection.setVariable(key, value);
+			putVariable(rootSection, getPath(sectionName, null), key, value);
 		}
 	}
 
@@ -413,11 +677,349 @@ public class GitConfiguration implements Configuration {
 		final RootSection rootSection = getOrCreateSection(sectionName);
 		final Section subSection = rootSection
 		.getOrCreateSection(subSectionName);
-		subSection.setVariable(key, value);
+		putVariable(subSection, getPath(sectionName, subSectionName), key,
+				value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#getAll(java.lang.String)
+	 */
+	@Override
+	public List<String> getAll(final String composedKey) {
+		final String[] keys = splitVariableKeys(composedKey);
+		final RootSection rootSection = getRootSection(keys[0]);
+		final Section section = rootSection == null || keys.length == 2 ? rootSection
+				: rootSection.getSection(keys[1]);
+		if (section == null) {
+			return Collections.emptyList();
+		}
+		return section.getVariableValues(keys[keys.length - 1]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#add(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void add(final String composedKey, final String value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed");
+		}
+		final String[] keys = splitVariableKeys(composedKey);
+		final String subSectionName = keys.length == 2 ? null : keys[1];
+		addVariable(getOrCreateSection(keys[0], subSectionName), getPath(
+				keys[0], subSectionName), keys[keys.length - 1], value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#replaceAll(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void replaceAll(final String composedKey, final String value,
+			final String valueRegex) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not allowed");
+		}
+		final String[] keys = splitVariableKeys(composedKey);
+		final String subSectionName = keys.length == 2 ? null : keys[1];
+		final Section section = getOrCreateSection(keys[0], subSectionName);
+		final String key = keys[keys.length - 1];
+		final List<String> values = retainUnmatched(section
+				.getVariableValues(key), valueRegex);
+		values.add(value);
+		putVariableValues(section, getPath(keys[0], subSectionName), key,
+				values);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#unsetAll(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void unsetAll(final String composedKey, final String valueRegex) {
+		final String[] keys = splitVariableKeys(composedKey);
+		final RootSection rootSection = getRootSection(keys[0]);
+		final String subSectionName = keys.length == 2 ? null : keys[1];
+		final Section section = rootSection == null || subSectionName == null ? rootSection
+				: rootSection.getSection(subSectionName);
+		if (section != null) {
+			final String key = keys[keys.length - 1];
+			final List<String> values = section.getVariableValues(key);
+			final List<String> retained = retainUnmatched(values, valueRegex);
+			if (retained.size() != values.size()) {
+				putVariableValues(section, getPath(keys[0], subSectionName),
+						key, retained);
+			}
+		}
+	}
+
+	/**
+	 * Replaces every value of a variable. Sections left without variables are
+	 * dropped, this is meant for derived configurations, such as a merged view
+	 * of several layers, whose sections only exist through their variables.
+	 *
+	 * @param values
+	 *            new values in order, none to remove the variable
+	 */
+	void setAll(final String composedKey, final List<String> values) {
+		final String[] keys = splitVariableKeys(composedKey);
+		final String subSectionName = keys.length == 2 ? null : keys[1];
+		final String key = keys[keys.length - 1];
+		if (!values.isEmpty()) {
+			putVariableValues(getOrCreateSection(keys[0], subSectionName),
+					getPath(keys[0], subSectionName), key,
+					new ArrayList<String>(values));
+			return;
+		}
+		final RootSection rootSection = getRootSection(keys[0]);
+		final Section section = rootSection == null || subSectionName == null ? rootSection
+				: rootSection.getSection(subSectionName);
+		if (section != null) {
+			removeVariable(section, getPath(keys[0], subSectionName), key);
+			if (section != rootSection && section.isEmpty()) {
+				rootSection.removeSection(subSectionName);
+			}
+			if (rootSection.isEmpty() && rootSection.getSections().isEmpty()) {
+				removeRootSection(keys[0]);
+			}
+		}
+	}
+
+	private String[] splitVariableKeys(final String composedKey) {
+		final String[] keys = splitKeys(composedKey);
+		if (keys.length < 2 || keys.length > 3) {
+			throw new IllegalArgumentException("Invalid variable key : "
+					+ composedKey);
+		}
+		return keys;
+	}
+
+	/**
+	 * @return values not matching given regular expression, none if it is
+	 *         null
+	 */
+	private static List<String> retainUnmatched(final List<String> values,
+			final String valueRegex) {
+		final List<String> retained = new ArrayList<String>(values.size() + 1);
+		if (valueRegex != null) {
+			final Pattern pattern = RegexFilter.compile(valueRegex);
+			for (final String value : values) {
+				if (!pattern.matcher(value).find()) {
+					retained.add(value);
+				}
+			}
+		}
+		return retained;
+	}
+
+	/**
+	 * Returns the prefix of the composed keys of given section variables, e.g.
+	 * "core." or "remote.origin.".
+	 * 
+	 * @param sectionName
+	 *            root section name
+	 * @param subSectionName
+	 *            sub-section name, or null for the root section itself
+	 */
+	static String getPath(final String sectionName,
+			final String subSectionName) {
+		if (subSectionName == null) {
+			return sectionName + ".";
+		}
+		return sectionName + "." + subSectionName + ".";
+	}
+
+	/**
+	 * Tells whether variables of given section can be indexed by composed
+	 * key, which is not the case if a section name contains dots: their
+	 * composed keys would be ambiguous.
+	 */
+	private static boolean isIndexable(final Section section, final String path) {
+		final int second = path.indexOf('.', path.indexOf('.') + 1);
+		if (section instanceof RootSection) {
+			return second == -1;
+		}
+		return second != -1 && path.indexOf('.', second + 1) == -1;
+	}
+
+	/**
+	 * Sets a variable of given section, keeping the variables index updated.
+	 * 
+	 * @param section
+	 *            section holding the variable
+	 * @param path
+	 *            prefix of the section, as returned by
+	 *            {@link #getPath(String, String)}
+	 */
+	void putVariable(final Section section, final String path,
+			final String key, final String value) {
+		section.setVariable(key, value);
+		variableSet(section, path, key, value);
+	}
+
+	/**
+	 * Adds a value to a variable, keeping its current values.
+	 * 
+	 * @see #putVariable(Section, String, String, String)
+	 */
+	void addVariable(final Section section, final String path,
+			final String key, final String value) {
+		section.addVariable(key, value);
+		variableSet(section, path, key, value);
+	}
+
+	private void putVariableValues(final Section section, final String path,
+			final String key, final List<String> values) {
+		if (values.isEmpty()) {
+			removeVariable(section, path, key);
+		} else {
+			section.setVariableValues(key, values);
+			variableSet(section, path, key, values.get(values.size() - 1));
+		}
+	}
+
+	/**
+	 * Indexes the value a variable now holds, its last one if it has many.
+	 */
+	private void variableSet(final Section section, final String path,
+			final String key, final String value) {
+		final String composedKey = path.concat(key);
+		if (key.indexOf('.') == -1 && isIndexable(section, path)) {
+			variableIndex.put(composedKey, value);
+			typedValues.remove(composedKey);
+		}
+		if (sortedIndex != null) {
+			sortedIndex.put(composedKey, value);
+		}
+		changed(composedKey);
+	}
+
+	private void removeVariable(final Section section, final String path,
+			final String key) {
+		section.removeVariable(key);
+		variableRemoved(path.concat(key));
+	}
+
+	/**
+	 * Drops a variable already removed from its section from the index.
+	 */
+	void variableRemoved(final String composedKey) {
+		variableIndex.remove(composedKey);
+		typedValues.remove(composedKey);
+		if (sortedIndex != null) {
+			sortedIndex.remove(composedKey);
+		}
+		changed(composedKey);
+	}
+
+	/**
+	 * @param notify
+	 *            whether variables are reported to change listeners
+	 */
+	private void indexSection(final RootSection rootSection,
+			final boolean notify) {
+		indexVariables(getPath(rootSection.getName(), null), rootSection,
+				notify);
+		for (final Section section : rootSection.getSections()) {
+			indexVariables(getPath(rootSection.getName(), section.getName()),
+					section, notify);
+		}
+	}
+
+	private void indexVariables(final String path, final Section section,
+			final boolean notify) {
+		final boolean indexable = isIndexable(section, path);
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			final String composedKey = path.concat(entry.getKey());
+			if (indexable && entry.getKey().indexOf('.') == -1) {
+				variableIndex.put(composedKey, entry.getValue());
+			}
+			if (sortedIndex != null) {
+				sortedIndex.put(composedKey, entry.getValue());
+			}
+			if (notify) {
+				changed(composedKey);
+			}
+		}
+	}
+
+	/**
+	 * @param notify
+	 *            whether variables are reported to change listeners
+	 */
+	private void unindexSection(final RootSection rootSection,
+			final boolean notify) {
+		unindexVariables(getPath(rootSection.getName(), null), rootSection,
+				notify);
+		for (final Section section : rootSection.getSections()) {
+			unindexVariables(getPath(rootSection.getName(), section.getName()),
+					section, notify);
+		}
+	}
+
+	private void unindexVariables(final String path, final Section section,
+			final boolean notify) {
+		for (final String key : section.getKeySet()) {
+			final String composedKey = path.concat(key);
+			variableIndex.remove(composedKey);
+			typedValues.remove(composedKey);
+			if (sortedIndex != null) {
+				sortedIndex.remove(composedKey);
+			}
+			if (notify) {
+				changed(composedKey);
+			}
+		}
+	}
+
+	private void changed(final String composedKey) {
+		if (notifier != null) {
+			notifier.changed(composedKey);
+		}
+	}
+
+	/**
+	 * Puts a root section in place, replacing any section with the same name,
+	 * and indexes its variables.
+	 */
+	void putSection(final RootSection rootSection) {
+		final RootSection replaced = rootSectionsMap.put(rootSection.getName(),
+				rootSection);
+		if (replaced != null && replaced != rootSection) {
+			unindexSection(replaced, true);
+		}
+		indexSection(rootSection, true);
+	}
+
+	/**
+	 * Returns the section variables of given path are stored in, creating it
+	 * if it is missing.
+	 * 
+	 * @param sectionName
+	 *            root section name
+	 * @param subSectionName
+	 *            sub-section name, or null for the root section itself
+	 */
+	Section getOrCreateSection(final String sectionName,
+			final String subSectionName) {
+		final RootSection rootSection = getOrCreateSection(sectionName);
+		if (subSectionName == null) {
+			return rootSection;
+		}
+		return rootSection.getOrCreateSection(subSectionName);
 	}
 
 	private RootSection getOrCreateSection(final String sectionName) {
-		RootSection rootSection = rootSectionsMap.get(sectionName);
+		RootSection rootSection = getRootSection(sectionName);
 		if (rootSection == null) {
 			rootSection = new RootSection(sectionName);
 			rootSectionsMap.put(sectionName, rootSection);
@@ -425,15 +1027,411 @@ public class GitConfiguration implements Configuration {
 		return rootSection;
 	}
 
+	/**
+	 * Returns the root section with given name, loading it first if it is
+	 * still pending in a lazily loaded file.
+	 */
+	private RootSection getRootSection(final String sectionName) {
+		if (!pendingSections.isEmpty()) {
+			loadPendingSection(sectionName);
+		}
+		return rootSectionsMap.get(sectionName);
+	}
+
+	/**
+	 * @param subSectionName
+	 *            sub-section name, or null for the root section itself
+	 * @return the section, or null if not present
+	 */
+	Section getSection(final String sectionName, final String subSectionName) {
+		final RootSection rootSection = getRootSection(sectionName);
+		if (rootSection == null || subSectionName == null) {
+			return rootSection;
+		}
+		return rootSection.getSection(subSectionName);
+	}
+
+	private void loadPendingSection(final String sectionName) {
+		if (pendingSections.remove(sectionName)) {
+			final SectionSource source = sectionSource;
+			if (pendingSections.isEmpty()) {
+				sectionSource = null;
+			}
+			try {
+				final RootSection rootSection = getOrCreateSection(sectionName);
+				source.loadSection(sectionName, rootSection);
+				indexSection(rootSection, false);
+			} catch (final IOException e) {
+				throw new IllegalStateException("Unable to load section '"
+						+ sectionName + "'", e);
+			}
+		}
+	}
+
+	private void loadPendingSections() {
+		if (!pendingSections.isEmpty()) {
+			for (final String sectionName : new ArrayList<String>(
+					pendingSections)) {
+				loadPendingSection(sectionName);
+			}
+		}
+	}
+
+	private void discardPendingSection(final String sectionName) {
+		if (pendingSections.remove(sectionName) && pendingSections.isEmpty()) {
+			sectionSource = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#beginTransaction()
+	 */
+	@Override
+	public ConfigTransaction beginTransaction() {
+		return new ConfigTransaction() {
+			@Override
+			void publish() {
+				// changes go to a copy, a failing one leaves this
+				// configuration and its listeners untouched
+				final GitConfiguration next = copy();
+				next.setNotifier(new ChangeNotifier(null));
+				applyTo(next);
+				final ChangeNotifier changes = next.detachNotifier();
+				adopt(next);
+				if (notifier != null) {
+					changes.drainTo(notifier);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Takes the sections of given configuration in place of current ones,
+	 * given configuration must not be used afterwards.
+	 */
+	private void adopt(final GitConfiguration configuration) {
+		rootSectionsMap.clear();
+		variableIndex.clear();
+		typedValues.clear();
+		rootSectionsMap.putAll(configuration.rootSectionsMap);
+		variableIndex.putAll(configuration.variableIndex);
+		if (sortedIndex != null) {
+			// cleared in place, views over it must stay valid
+			sortedIndex.clear();
+			sortSections(rootSectionsMap.values());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#addChangeListener(java.lang.String,
+	 * org.timo.gitconfig.ConfigChangeListener)
+	 */
+	@Override
+	public void addChangeListener(final String prefix,
+			final ConfigChangeListener listener) {
+		getNotifier().addListener(prefix, listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#removeChangeListener(org.timo.gitconfig
+	 * .ConfigChangeListener)
+	 */
+	@Override
+	public void removeChangeListener(final ConfigChangeListener listener) {
+		if (notifier != null) {
+			notifier.removeListener(listener);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#setChangeExecutor(java.util.concurrent
+	 * .Executor)
+	 */
+	@Override
+	public void setChangeExecutor(final Executor executor) {
+		getNotifier().setExecutor(executor);
+	}
+
+	private synchronized ChangeNotifier getNotifier() {
+		if (notifier == null) {
+			notifier = new ChangeNotifier(this);
+		}
+		return notifier;
+	}
+
+	/**
+	 * Sets the notifier receiving the keys of changed variables, replacing
+	 * the one used by listeners of this configuration.
+	 */
+	void setNotifier(final ChangeNotifier notifier) {
+		this.notifier = notifier;
+	}
+
+	/**
+	 * Removes the notifier of this configuration, no more changes are
+	 * reported.
+	 * 
+	 * @return removed notifier
+	 */
+	ChangeNotifier detachNotifier() {
+		final ChangeNotifier detached = notifier;
+		notifier = null;
+		return detached;
+	}
+
+	/**
+	 * Creates a read-only copy of this configuration, laid out in sorted
+	 * arrays for a compact footprint and allocation-free lookups. Later
+	 * changes to this configuration are not reflected on it.
+	 * 
+	 * @return immutable copy of this configuration
+	 */
+	public ImmutableConfiguration freeze() {
+		loadPendingSections();
+		return new ImmutableConfiguration(rootSectionsMap.values());
+	}
+
+	/**
+	 * @return a deep copy of this configuration, with every pending section
+	 *         already loaded
+	 */
+	GitConfiguration copy() {
+		loadPendingSections();
+		final GitConfiguration copy = new GitConfiguration();
+		for (final RootSection rootSection : rootSectionsMap.values()) {
+			copy.rootSectionsMap.put(rootSection.getName(), rootSection.copy());
+		}
+		copy.variableIndex.putAll(variableIndex);
+		if (sortedIndex != null) {
+			copy.sortedIndex = new TreeMap<String, String>(sortedIndex);
+		}
+		return copy;
+	}
+
+	/**
+	 * Merges all sections of given configuration into this one, its variables
+	 * override current ones. Sections not present here are adopted as they
+	 * are, so given configuration must not be used afterwards.
+	 */
+	void merge(final GitConfiguration configuration) {
+		merge(configuration, false);
+	}
+
+	/**
+	 * Adds all sections of given configuration to this one, its variable
+	 * values are added after current ones, as when both were read from the
+	 * same file. Sections not present here are adopted as they are, so given
+	 * configuration must not be used afterwards.
+	 */
+	void append(final GitConfiguration configuration) {
+		merge(configuration, true);
+	}
+
+	private void merge(final GitConfiguration configuration,
+			final boolean append) {
+		configuration.loadPendingSections();
+		for (final RootSection rootSection : configuration.rootSectionsMap
+				.values()) {
+			final RootSection current = getRootSection(rootSection.getName());
+			if (current == null) {
+				rootSectionsMap.put(rootSection.getName(), rootSection);
+			} else if (append) {
+				current.append(rootSection);
+			} else {
+				current.merge(rootSection);
+			}
+		}
+		variableIndex.putAll(configuration.variableIndex);
+		if (sortedIndex != null) {
+			sortSections(configuration.rootSectionsMap.values());
+		}
+		if (notifier != null) {
+			for (final RootSection rootSection : configuration.rootSectionsMap
+					.values()) {
+				notifySection(rootSection);
+			}
+		}
+	}
+
+	private void notifySection(final RootSection rootSection) {
+		String path = getPath(rootSection.getName(), null);
+		for (final String key : rootSection.getKeySet()) {
+			changed(path.concat(key));
+		}
+		for (final Section section : rootSection.getSections()) {
+			path = getPath(rootSection.getName(), section.getName());
+			for (final String key : section.getKeySet()) {
+				changed(path.concat(key));
+			}
+		}
+	}
+
+	/**
+	 * Makes this configuration hold exactly the sections and variables of
+	 * given configuration, without clearing it first: only sections and
+	 * variables that differ are touched. Sections not present here are
+	 * adopted as they are, so given configuration must not be used afterwards.
+	 */
+	void update(final GitConfiguration configuration) {
+		loadPendingSections();
+		configuration.loadPendingSections();
+		for (final Iterator<RootSection> iterator = rootSectionsMap.values()
+				.iterator(); iterator.hasNext();) {
+			final RootSection rootSection = iterator.next();
+			if (!configuration.rootSectionsMap.containsKey(rootSection
+					.getName())) {
+				iterator.remove();
+				unindexSection(rootSection, true);
+			}
+		}
+		for (final RootSection rootSection : configuration.rootSectionsMap
+				.values()) {
+			final RootSection current = rootSectionsMap.get(rootSection
+					.getName());
+			if (current == null) {
+				putSection(rootSection);
+			} else {
+				updateSection(current, rootSection);
+			}
+		}
+	}
+
+	private void updateSection(final RootSection current,
+			final RootSection rootSection) {
+		final String name = current.getName();
+		updateVariables(getPath(name, null), current, rootSection);
+		for (final Iterator<Section> iterator = current.getSections()
+				.iterator(); iterator.hasNext();) {
+			final Section section = iterator.next();
+			if (rootSection.getSection(section.getName()) == null) {
+				iterator.remove();
+				unindexVariables(getPath(name, section.getName()), section,
+						true);
+			}
+		}
+		for (final Section section : rootSection.getSections()) {
+			final String path = getPath(name, section.getName());
+			final Section currentSection = current.getSection(section
+					.getName());
+			if (currentSection == null) {
+				current.setSection(section);
+				indexVariables(path, section, true);
+			} else {
+				updateVariables(path, currentSection, section);
+			}
+		}
+	}
+
+	private void updateVariables(final String path, final Section current,
+			final Section section) {
+		for (final String key : new ArrayList<String>(current.getKeySet())) {
+			if (!section.getKeySet().contains(key)) {
+				removeVariable(current, path, key);
+			}
+		}
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			final String key = entry.getKey();
+			final String[] values = section.getRepeatedValues(key);
+			if (values != null) {
+				if (!Arrays.equals(values, current.getRepeatedValues(key))) {
+					putVariableValues(current, path, key, Arrays.asList(values));
+				}
+			} else if (!current.getKeySet().contains(key)
+					|| current.getRepeatedValues(key) != null
+					|| !current.getVariable(key).equals(entry.getValue())) {
+				putVariable(current, path, key, entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Loads given file lazily: only its section headers are read now, each
+	 * section is parsed the first time it is used. Variables of the file
+	 * override current ones, as with {@link #load(String)}. The file must not
+	 * change while sections are still pending.
+	 * 
+	 * @param fileName
+	 *            configuration source file
+	 * @throws FileNotFoundException
+	 *             if file can't be read
+	 */
+	public void loadLazily(final String fileName) throws IOException {
+		loadPending(FileHandler.indexSections(Paths.get(fileName)));
+	}
+
+	private void loadPending(final SectionSource source) {
+		loadPendingSections();
+		sectionSource = source;
+		pendingSections.addAll(source.getSectionNames());
+		for (final String sectionName : pendingSections) {
+			final RootSection rootSection = rootSectionsMap.get(sectionName);
+			if (rootSection != null) {
+				// indexed again once loaded
+				unindexSection(rootSection, false);
+			}
+		}
+	}
+
+	/**
+	 * Loads the precompiled snapshot of given source file if it is up to date,
+	 * falling back to parse the source file otherwise. Snapshot strings are
+	 * decoded lazily, section by section, the first time each section is used.
+	 * 
+	 * @param snapshotFileName
+	 *            snapshot written by {@link #saveSnapshot(String, String)}
+	 * @param fileName
+	 *            configuration source file
+	 * @return true if the snapshot was used, false if the source was parsed
+	 * @throws FileNotFoundException
+	 *             if source file can't be read
+	 */
+	public boolean loadSnapshot(final String snapshotFileName,
+			final String fileName) throws IOException {
+		final ConfigSnapshot snapshot = ConfigSnapshot.open(Paths
+				.get(snapshotFileName), Paths.get(fileName));
+		if (snapshot == null) {
+			load(fileName);
+			return false;
+		}
+		loadPending(snapshot);
+		return true;
+	}
+
+	/**
+	 * Writes a binary snapshot of this configuration, stamped as up to date
+	 * with the current state of given source file.
+	 * 
+	 * @param snapshotFileName
+	 *            target snapshot file
+	 * @param fileName
+	 *            configuration source file the snapshot stands for
+	 */
+	public void saveSnapshot(final String snapshotFileName,
+			final String fileName) throws IOException {
+		loadPendingSections();
+		ConfigSnapshot.write(rootSectionsMap.values(), Paths
+				.get(snapshotFileName), Paths.get(fileName));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see org.timo.gitconfig.Configuration#load(java.lang.String)
 	 */
 	@Override
-	public void load(final String fileName) throws IOException {		
-		final Configuration config = FileHandler.loadConfiguration(fileName);
-		this.addVariables(config.getVariables());
+	public void load(final String fileName) throws IOException {
+		FileHandler.load(Paths.get(fileName), this);
 	}
 
 	/* (non-Javadoc)
@@ -452,9 +1450,8 @@ public class GitConfiguration implements Configuration {
 	 * @see org.timo.gitconfig.Configuration#load(java.io.InputStream)
 	 */
 	@Override
-	public void load(final InputStream inputStream) throws IOException {		
-		final Configuration config = FileHandler.loadConfiguration(inputStream);
-		this.addVariables(config.getVariables());
+	public void load(final InputStream inputStream) throws IOException {
+		FileHandler.load(inputStream, this);
 	}
 
 	/*
@@ -464,7 +1461,28 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public void save(final String fileName) throws IOException {
+		final Path path = Paths.get(fileName);
+		if (layout != null && layout.isSourceOf(path)) {
+			// only changed lines are written, comments and layout are kept
+			layout.patch(this);
+			return;
+		}
 		FileHandler.save(fileName, this);
+		if (layout != null && layout.isAt(path)) {
+			layout = null;
+		}
+	}
+
+	SourceLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Sets the lines of the file this configuration mirrors, saving to that
+	 * file then only patches the lines that changed.
+	 */
+	void setLayout(final SourceLayout layout) {
+		this.layout = layout;
 	}
 
 	/*
@@ -484,6 +1502,7 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public Map<String, String> getVariables() {
+		loadPendingSections();
 		final Map<String, String> variables = new HashMap<String, String>();
 		for (final RootSection rootSection : rootSectionsMap.values()) {
 			variables.putAll(rootSection.getAllVariables());
@@ -499,7 +1518,7 @@ public class GitConfiguration implements Configuration {
 	public Map<String, String> getVariables(final String composedKey) {
 		final String[] keys = splitKeys(composedKey);
 		final Map<String, String> variables = new HashMap<String, String>();
-		final RootSection rootSection = rootSectionsMap.get(keys[0]);
+		final RootSection rootSection = getRootSection(keys[0]);
 
 		if (rootSection != null) {
 			if (keys.length == 1) {
@@ -514,6 +1533,107 @@ public class GitConfiguration implements Configuration {
 		return variables;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#getVariablesWithPrefix(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> getVariablesWithPrefix(final String prefix) {
+		loadPendingSections(prefix);
+		return Collections.unmodifiableSortedMap(prefixView(getSortedIndex(),
+				prefix));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.Configuration#subtree(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> subtree(final String path) {
+		return getVariablesWithPrefix(path.concat("."));
+	}
+
+	/**
+	 * @return variables of given sorted map whose key starts with given
+	 *         prefix, as a view over it
+	 */
+	static <V> SortedMap<String, V> prefixView(
+			final NavigableMap<String, V> sortedMap, final String prefix) {
+		// keys starting with prefix sort before prefix with its last char
+		// incremented, skipping trailing chars that can't be incremented
+		int last = prefix.length() - 1;
+		while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+			last--;
+		}
+		if (last < 0) {
+			return sortedMap.tailMap(prefix, true);
+		}
+		return sortedMap.subMap(prefix, true, prefix.substring(0, last)
+				+ (char) (prefix.charAt(last) + 1), false);
+	}
+
+	/**
+	 * @return whether prefix queries are served without building the sorted
+	 *         index first, so they don't modify this configuration
+	 */
+	boolean isSorted() {
+		return sortedIndex != null;
+	}
+
+	/**
+	 * Builds the sorted index, so later prefix queries only read it.
+	 */
+	void sort() {
+		getSortedIndex();
+	}
+
+	private NavigableMap<String, String> getSortedIndex() {
+		if (sortedIndex == null) {
+			sortedIndex = new TreeMap<String, String>();
+			sortSections(rootSectionsMap.values());
+		}
+		return sortedIndex;
+	}
+
+	private void sortSections(final Collection<RootSection> rootSections) {
+		for (final RootSection rootSection : rootSections) {
+			sortVariables(getPath(rootSection.getName(), null), rootSection);
+			for (final Section section : rootSection.getSections()) {
+				sortVariables(getPath(rootSection.getName(), section.getName()),
+						section);
+			}
+		}
+	}
+
+	private void sortVariables(final String path, final Section section) {
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			sortedIndex.put(path.concat(entry.getKey()), entry.getValue());
+		}
+	}
+
+	/**
+	 * Loads the pending sections holding variables with given prefix, leaving
+	 * the rest pending.
+	 */
+	private void loadPendingSections(final String prefix) {
+		if (!pendingSections.isEmpty()) {
+			final int sectionEnd = prefix.indexOf('.');
+			if (sectionEnd != -1) {
+				loadPendingSection(prefix.substring(0, sectionEnd));
+			} else {
+				for (final String sectionName : new ArrayList<String>(
+						pendingSections)) {
+					if (sectionName.startsWith(prefix)) {
+						loadPendingSection(sectionName);
+					}
+				}
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -521,7 +1641,20 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public void clear() {
+		if (notifier != null) {
+			for (final RootSection rootSection : rootSectionsMap.values()) {
+				notifySection(rootSection);
+			}
+		}
 		this.rootSectionsMap.clear();
+		this.variableIndex.clear();
+		this.typedValues.clear();
+		if (this.sortedIndex != null) {
+			this.sortedIndex.clear();
+		}
+		this.pendingSections.clear();
+		this.sectionSource = null;
+		this.layout = null;
 	}
 
 	/*
@@ -534,6 +1667,50 @@ public class GitConfiguration implements Configuration {
 		return new ConfigurationIterator(this);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> spliterator() {
+		return new ConfigurationSpliterator(getRootSections());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#stream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#parallelStream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#findByRegex(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public Stream<Entry<String, String>> findByRegex(final String nameRegex,
+			final String valueRegex) {
+		final RegexFilter filter = new RegexFilter(nameRegex, valueRegex);
+		loadPendingSections(filter.getLiteralPrefix());
+		return filter.filter(rootSectionsMap.values());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -541,6 +1718,10 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public boolean containsVariable(final String composedKey) {
+		final String value = variableIndex.get(composedKey);
+		if (value != null) {
+			return !value.isEmpty();
+		}
 		final String[] keys = splitKeys(composedKey);
 		boolean exists = false;
 		if (keys.length > 0 && keys.length < 4) {
@@ -553,6 +1734,18 @@ public class GitConfiguration implements Configuration {
 		return exists;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.timo.gitconfig.Configuration#containsVariable(org.timo.gitconfig.
+	 * ConfigKey)
+	 */
+	@Override
+	public boolean containsVariable(final ConfigKey key) {
+		return !getValue(key).isEmpty();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -560,6 +1753,7 @@ public class GitConfiguration implements Configuration {
 	 */
 	@Override
 	public boolean isEmpty() {
+		loadPendingSections();
 		boolean isEmpty = rootSectionsMap.isEmpty();
 		if (!isEmpty) {
 			for (final RootSection rootSection : rootSectionsMap.values()) {
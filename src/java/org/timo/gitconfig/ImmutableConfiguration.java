@@ -0,0 +1,805 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Read-only {@link Configuration} created by {@link GitConfiguration#freeze()}.
+ * Variables are kept in four parallel arrays (section, sub-section, key and
+ * value) sorted by section, sub-section and key, so every lookup is a binary
+ * search over them: there are no maps, no entries and no per-section objects.
+ * Composed keys are compared in place, without splitting them.
+ *
+ * Being immutable, it can be shared between threads freely. Every mutator
+ * throws {@link UnsupportedOperationException}.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public final class ImmutableConfiguration implements Configuration {
+
+	private final String[] sections;
+
+	/**
+	 * Sub-section of each variable, null for root section variables.
+	 */
+	private final String[] subSections;
+
+	private final String[] keys;
+
+	private final String[] values;
+
+	/**
+	 * Every value of the multi-valued variables by composed key, the arrays
+	 * only hold their last one.
+	 */
+	private final Map<String, String[]> repeatedValues;
+
+	/**
+	 * Variables sorted by composed key for prefix queries, built on the first
+	 * one and never modified afterwards.
+	 */
+	private volatile NavigableMap<String, String> sortedVariables;
+
+	ImmutableConfiguration(final Collection<RootSection> rootSections) {
+		final List<String[]> variables = new ArrayList<String[]>();
+		final Map<String, String[]> repeated = new HashMap<String, String[]>();
+		for (final RootSection rootSection : rootSections) {
+			addVariables(rootSection.getName(), null, rootSection, variables,
+					repeated);
+			for (final Section section : rootSection.getSections()) {
+				addVariables(rootSection.getName(), section.getName(), section,
+						variables, repeated);
+			}
+		}
+		this.repeatedValues = repeated.isEmpty() ? Collections
+				.<String, String[]> emptyMap() : repeated;
+		Collections.sort(variables, new Comparator<String[]>() {
+			@Override
+			public int compare(final String[] first, final String[] second) {
+				int result = first[0].compareTo(second[0]);
+				if (result == 0) {
+					result = compareSubSections(first[1], second[1]);
+				}
+				if (result == 0) {
+					result = first[2].compareTo(second[2]);
+				}
+				return result;
+			}
+		});
+		final int size = variables.size();
+		sections = new String[size];
+		subSections = new String[size];
+		keys = new String[size];
+		values = new String[size];
+		for (int i = 0; i < size; i++) {
+			final String[] variable = variables.get(i);
+			sections[i] = variable[0];
+			subSections[i] = variable[1];
+			keys[i] = variable[2];
+			values[i] = variable[3];
+		}
+	}
+
+	private static void addVariables(final String sectionName,
+			final String subSectionName, final Section section,
+			final List<String[]> variables, final Map<String, String[]> repeated) {
+		for (final Entry<String, String> entry : section.getVariableEntries()) {
+			variables.add(new String[] { sectionName, subSectionName,
+					entry.getKey(), entry.getValue() });
+			final String[] values = section.getRepeatedValues(entry.getKey());
+			if (values != null) {
+				repeated.put(GitConfiguration.getPath(sectionName,
+						subSectionName).concat(entry.getKey()), values.clone());
+			}
+		}
+	}
+
+	private static int compareSubSections(final String first,
+			final String second) {
+		if (first == null) {
+			return second == null ? 0 : -1;
+		}
+		return second == null ? 1 : first.compareTo(second);
+	}
+
+	/**
+	 * Compares a field against a region of given text, as
+	 * {@link String#compareTo(String)} would do with that region. A null field
+	 * (root section) is lower than any region, and equal to a null text.
+	 */
+	private static int compare(final String field, final String text,
+			final int from, final int to) {
+		if (field == null) {
+			return text == null ? 0 : -1;
+		}
+		if (text == null) {
+			return 1;
+		}
+		final int length = to - from;
+		final int common = Math.min(field.length(), length);
+		for (int i = 0; i < common; i++) {
+			final int diff = field.charAt(i) - text.charAt(from + i);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return field.length() - length;
+	}
+
+	/**
+	 * Binary search of a variable given as regions of strings.
+	 *
+	 * @return index of the variable, or -1 if not present
+	 */
+	private int indexOf(final String section, final int sectionFrom,
+			final int sectionTo, final String subSection, final int subFrom,
+			final int subTo, final String key, final int keyFrom,
+			final int keyTo) {
+		int low = 0;
+		int high = sections.length - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			int result = compare(sections[middle], section, sectionFrom,
+					sectionTo);
+			if (result == 0) {
+				result = compare(subSections[middle], subSection, subFrom,
+						subTo);
+			}
+			if (result == 0) {
+				result = compare(keys[middle], key, keyFrom, keyTo);
+			}
+			if (result < 0) {
+				low = middle + 1;
+			} else if (result > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOf(final String section, final String subSection,
+			final String key) {
+		return indexOf(section, 0, section.length(), subSection, 0,
+				subSection == null ? 0 : subSection.length(), key, 0, key
+						.length());
+	}
+
+	/**
+	 * @return index of the first variable of given section, or the number of
+	 *         variables if none
+	 */
+	private int firstIndexOf(final String section) {
+		int low = 0;
+		int high = sections.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (sections[middle].compareTo(section) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private String valueAt(final int index) {
+		return index < 0 ? "" : values[index];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String)
+	 */
+	@Override
+	public String getValue(final String composedKey) {
+		final int sectionEnd = composedKey.indexOf('.');
+		if (sectionEnd > 0 && !composedKey.endsWith(".")) {
+			final int subSectionEnd = composedKey.indexOf('.', sectionEnd + 1);
+			if (subSectionEnd == -1) {
+				return valueAt(indexOf(composedKey, 0, sectionEnd, null, 0, 0,
+						composedKey, sectionEnd + 1, composedKey.length()));
+			}
+			int keyEnd = composedKey.indexOf('.', subSectionEnd + 1);
+			if (keyEnd == -1) {
+				keyEnd = composedKey.length();
+			}
+			return valueAt(indexOf(composedKey, 0, sectionEnd, composedKey,
+					sectionEnd + 1, subSectionEnd, composedKey,
+					subSectionEnd + 1, keyEnd));
+		}
+		final String[] names = composedKey.split("\\.");
+		if (names.length < 2) {
+			throw new IllegalArgumentException("Invalid variable key : "
+					+ composedKey);
+		}
+		if (names.length > 2) {
+			return getValue(names[0], names[1], names[2]);
+		}
+		return getValue(names[0], names[1]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getValue(org.timo.gitconfig.ConfigKey)
+	 */
+	@Override
+	public String getValue(final ConfigKey key) {
+		return valueAt(indexOf(key.getSectionName(), key.getSubSectionName(),
+				key.getKey()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName, final String key) {
+		final int dot = sectionName.indexOf('.');
+		if (dot != -1) {
+			return valueAt(indexOf(sectionName, 0, dot, sectionName, dot + 1,
+					sectionName.length(), key, 0, key.length()));
+		}
+		return valueAt(indexOf(sectionName, null, key));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName,
+			final String subSectionName, final String key) {
+		if (subSectionName == null) {
+			return "";
+		}
+		return valueAt(indexOf(sectionName, subSectionName, key));
+	}
+
+	@Override
+	public Integer getInt(final String composedKey) {
+		return Integer.valueOf(TypedValue.parseInt(getValue(composedKey)));
+	}
+
+	@Override
+	public Long getLong(final String composedKey) {
+		return Long.valueOf(TypedValue.parseLong(getValue(composedKey)));
+	}
+
+	@Override
+	public Double getDouble(final String composedKey) {
+		return Double.valueOf(getValue(composedKey));
+	}
+
+	@Override
+	public Boolean getBoolean(final String composedKey) {
+		return Boolean.valueOf(TypedValue.parseBoolean(getValue(composedKey)));
+	}
+
+	@Override
+	public int getInt(final String composedKey, final int defaultValue) {
+		return TypedValue.parseInt(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public long getLong(final String composedKey, final long defaultValue) {
+		return TypedValue.parseLong(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public double getDouble(final String composedKey, final double defaultValue) {
+		return TypedValue.parseDouble(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public boolean getBoolean(final String composedKey,
+			final boolean defaultValue) {
+		return TypedValue.parseBoolean(getValue(composedKey), defaultValue);
+	}
+
+	private String getComposedKey(final int index) {
+		if (subSections[index] == null) {
+			return sections[index] + "." + keys[index];
+		}
+		return sections[index] + "." + subSections[index] + "." + keys[index];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getKeySet()
+	 */
+	@Override
+	public Set<String> getKeySet() {
+		final Set<String> keySet = new HashSet<String>();
+		for (int i = 0; i < keys.length; i++) {
+			keySet.add(getComposedKey(i));
+		}
+		return keySet;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues()
+	 */
+	@Override
+	public Collection<String> getValues() {
+		return new ArrayList<String>(Arrays.asList(values));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues(java.lang.String)
+	 */
+	@Override
+	public Collection<String> getValues(final String composedKey) {
+		final String[] names = composedKey.split("\\.");
+		final Collection<String> sectionValues = new ArrayList<String>();
+		for (int i = firstIndexOf(names[0]); i < sections.length
+				&& sections[i].equals(names[0]); i++) {
+			if (names.length == 1 || names[1].equals(subSections[i])) {
+				sectionValues.add(values[i]);
+			}
+		}
+		return sectionValues;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables()
+	 */
+	@Override
+	public Map<String, String> getVariables() {
+		final Map<String, String> variables = new HashMap<String, String>();
+		for (int i = 0; i < keys.length; i++) {
+			variables.put(getComposedKey(i), values[i]);
+		}
+		return variables;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables(java.lang.String)
+	 */
+	@Override
+	public Map<String, String> getVariables(final String composedKey) {
+		final String[] names = composedKey.split("\\.");
+		final Map<String, String> variables = new HashMap<String, String>();
+		for (int i = firstIndexOf(names[0]); i < sections.length
+				&& sections[i].equals(names[0]); i++) {
+			if (names.length == 1) {
+				variables.put(getComposedKey(i), values[i]);
+			} else if (names[1].equals(subSections[i])) {
+				variables.put(keys[i], values[i]);
+			}
+		}
+		return variables;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getVariablesWithPrefix(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> getVariablesWithPrefix(final String prefix) {
+		NavigableMap<String, String> sorted = sortedVariables;
+		if (sorted == null) {
+			// racing threads build equal maps, any of them can be kept
+			sorted = new TreeMap<String, String>();
+			for (int i = 0; i < keys.length; i++) {
+				sorted.put(getComposedKey(i), values[i]);
+			}
+			sortedVariables = sorted;
+		}
+		return Collections.unmodifiableSortedMap(GitConfiguration.prefixView(
+				sorted, prefix));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#subtree(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> subtree(final String path) {
+		return getVariablesWithPrefix(path.concat("."));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#containsVariable(java.lang.String)
+	 */
+	@Override
+	public boolean containsVariable(final String composedKey) {
+		final int sectionEnd = composedKey.indexOf('.');
+		if (sectionEnd == -1 || composedKey.split("\\.").length > 3) {
+			return false;
+		}
+		return !getValue(composedKey).isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#containsVariable(org.timo.gitconfig.
+	 * ConfigKey)
+	 */
+	@Override
+	public boolean containsVariable(final ConfigKey key) {
+		return !getValue(key).isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getTextContent()
+	 */
+	@Override
+	public String getTextContent() {
+		final StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#write(java.io.Writer)
+	 */
+	@Override
+	public void write(final Writer writer) throws IOException {
+		for (int i = 0; i < keys.length; i++) {
+			final boolean sectionStart = i == 0
+					|| !sections[i].equals(sections[i - 1])
+					|| compareSubSections(subSections[i], subSections[i - 1]) != 0;
+			if (sectionStart) {
+				if (i > 0) {
+					writer.write('\n');
+				}
+				writer.write('[');
+				writer.write(sections[i]);
+				if (subSections[i] == null) {
+					writer.write("] \n");
+				} else {
+					writer.write(" '");
+					writer.write(subSections[i]);
+					writer.write("'] \n");
+				}
+			}
+			final String[] repeated = repeatedValues.isEmpty() ? null
+					: repeatedValues.get(getComposedKey(i));
+			if (repeated == null) {
+				writeVariable(writer, keys[i], values[i]);
+			} else {
+				for (final String value : repeated) {
+					writeVariable(writer, keys[i], value);
+				}
+			}
+		}
+		if (keys.length > 0) {
+			writer.write('\n');
+		}
+	}
+
+	private static void writeVariable(final Writer writer, final String key,
+			final String value) throws IOException {
+		writer.write("\t\t ");
+		writer.write(key);
+		writer.write(" = ");
+		writer.write(FileHandler.quote(value));
+		writer.write('\n');
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.lang.String)
+	 */
+	@Override
+	public void save(final String fileName) throws IOException {
+		FileHandler.save(fileName, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.io.OutputStream)
+	 */
+	@Override
+	public void save(final OutputStream outputStream) throws IOException {
+		FileHandler.save(outputStream, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		return new Iterator<Entry<String, String>>() {
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < keys.length;
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final int current = index++;
+				return new AbstractMap.SimpleImmutableEntry<String, String>(
+						getComposedKey(current), values[current]);
+			}
+
+			@Override
+			public void remove() {
+				throw immutable();
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> spliterator() {
+		return stream().spliterator();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#stream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> stream() {
+		return stream(0, keys.length);
+	}
+
+	/**
+	 * @return stream of the variables between given indexes, an index range
+	 *         splits evenly and knows its exact size
+	 */
+	private Stream<Entry<String, String>> stream(final int from, final int to) {
+		return IntStream.range(from, to).mapToObj(
+				new IntFunction<Entry<String, String>>() {
+					@Override
+					public Entry<String, String> apply(final int index) {
+						return new AbstractMap.SimpleImmutableEntry<String, String>(
+								getComposedKey(index), values[index]);
+					}
+				});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#parallelStream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> parallelStream() {
+		return stream().parallel();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#findByRegex(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public Stream<Entry<String, String>> findByRegex(final String nameRegex,
+			final String valueRegex) {
+		final RegexFilter filter = new RegexFilter(nameRegex, valueRegex);
+		// sections are sorted, the candidate ones are contiguous
+		final String prefix = filter.getLiteralPrefix();
+		final int sectionEnd = prefix.indexOf('.');
+		final int from = firstIndexOf(sectionEnd == -1 ? prefix : prefix
+				.substring(0, sectionEnd));
+		int to = from;
+		while (to < sections.length && filter.mayMatch(sections[to])) {
+			to++;
+		}
+		return stream(from, to).filter(filter);
+	}
+
+	private static UnsupportedOperationException immutable() {
+		return new UnsupportedOperationException(
+				"Immutable configuration can't be modified");
+	}
+
+	@Override
+	public void setValue(final String composedKey, final String value) {
+		throw immutable();
+	}
+
+	@Override
+	public void setValue(final String sectionName, final String key,
+			final String value) {
+		throw immutable();
+	}
+
+	@Override
+	public void setValue(final String sectionName, final String subSectionName,
+			final String key, final String value) {
+		throw immutable();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getAll(java.lang.String)
+	 */
+	@Override
+	public List<String> getAll(final String composedKey) {
+		final String[] repeated = repeatedValues.get(composedKey);
+		if (repeated != null) {
+			return Collections.unmodifiableList(Arrays.asList(repeated));
+		}
+		final String value = getValue(composedKey);
+		if (value.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(value);
+	}
+
+	@Override
+	public void add(final String composedKey, final String value) {
+		throw immutable();
+	}
+
+	@Override
+	public void replaceAll(final String composedKey, final String value,
+			final String valueRegex) {
+		throw immutable();
+	}
+
+	@Override
+	public void unsetAll(final String composedKey, final String valueRegex) {
+		throw immutable();
+	}
+
+	@Override
+	public void addVariables(final Map<String, String> variables) {
+		throw immutable();
+	}
+
+	@Override
+	public void removeSection(final String sectionName) {
+		throw immutable();
+	}
+
+	@Override
+	public void removeSection(final String sectionName,
+			final String subSectionName) {
+		throw immutable();
+	}
+
+	@Override
+	public void remove(final String composedKey) {
+		throw immutable();
+	}
+
+	@Override
+	public void remove(final String sectionName, final String key) {
+		throw immutable();
+	}
+
+	@Override
+	public void remove(final String sectionName, final String subSectionName,
+			final String key) {
+		throw immutable();
+	}
+
+	@Override
+	public void renameSection(final String oldName, final String newName) {
+		throw immutable();
+	}
+
+	@Override
+	public void renameSection(final String sectionName, final String oldName,
+			final String newName) {
+		throw immutable();
+	}
+
+	@Override
+	public void load(final String fileName) throws IOException {
+		throw immutable();
+	}
+
+	@Override
+	public void load(final InputStream inputStream) throws IOException {
+		throw immutable();
+	}
+
+	@Override
+	public void clear() {
+		throw immutable();
+	}
+
+	@Override
+	public ConfigTransaction beginTransaction() {
+		throw immutable();
+	}
+
+	// an immutable configuration never changes, listeners are never called
+
+	@Override
+	public void addChangeListener(final String prefix,
+			final ConfigChangeListener listener) {
+	}
+
+	@Override
+	public void removeChangeListener(final ConfigChangeListener listener) {
+	}
+
+	@Override
+	public void setChangeExecutor(final Executor executor) {
+	}
+
+}
@@ -0,0 +1,461 @@
+package org.timo.gitconfig;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Expands the include directives of a configuration file, as git does:
+ *
+ * <pre>
+ * [include]
+ *     path = defaults.inc              -> always included
+ * [includeIf "gitdir:~/work/"]
+ *     path = work.inc                  -> included for repositories under ~/work
+ * </pre>
+ *
+ * An included file is read as if its content was found at the location of
+ * the directive, so later variables of the including file still override it.
+ * Relative paths are resolved against the directory of the including file,
+ * and missing files are skipped. Only "gitdir:" and "gitdir/i:" conditions
+ * are supported, any other condition never holds.
+ *
+ * Files are parsed into fragments, split at every directive, which are
+ * cached by path, modification time and size: resolving again after a file
+ * changed only parses that file. Includes are walked level by level, and the
+ * files of a level that are not cached yet are parsed in parallel.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class IncludeResolver {
+
+	private static final Logger LOG = Logger.getLogger(IncludeResolver.class
+			.getName());
+
+	private static final int CACHE_SIZE = 128;
+
+	/**
+	 * Least recently used fragments by absolute path.
+	 */
+	private static final Map<Path, Fragment> FRAGMENTS = new LinkedHashMap<Path, Fragment>(
+			CACHE_SIZE, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Entry<Path, Fragment> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Include directive, i.e. a variable named include.path or
+	 * includeIf.&lt;condition&gt;.path.
+	 */
+	private static final class Include {
+
+		private final String path;
+
+		private final String condition;
+
+		private Include(final String path, final String condition) {
+			this.path = path;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * Parsed file, as the variables before, between and after its include
+	 * directives. Directives are variables too, so each one closes the
+	 * variables before it.
+	 */
+	private static final class Fragment {
+
+		private final Path path;
+
+		private final long lastModified;
+
+		private final long size;
+
+		private final List<GitConfiguration> parts;
+
+		private final List<Include> includes;
+
+		private Fragment(final Path path, final long lastModified,
+				final long size, final List<GitConfiguration> parts,
+				final List<Include> includes) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.parts = parts;
+			this.includes = includes;
+		}
+
+		private boolean isCurrent() throws IOException {
+			return Files.getLastModifiedTime(path).toMillis() == lastModified
+					&& Files.size(path) == size;
+		}
+	}
+
+	private final Path gitDir;
+
+	/**
+	 * @param gitDir
+	 *            repository directory "gitdir:" conditions are matched
+	 *            against, null if there is none
+	 */
+	IncludeResolver(final Path gitDir) {
+		this.gitDir = gitDir == null ? null : gitDir.toAbsolutePath()
+				.normalize();
+	}
+
+	/**
+	 * @return repository directory of given configuration file, i.e. its
+	 *         directory if it is named ".git", or null
+	 */
+	static Path getGitDir(final Path path) {
+		final Path parent = path.toAbsolutePath().normalize().getParent();
+		if (parent != null && parent.getFileName() != null
+				&& ".git".equals(parent.getFileName().toString())) {
+			return parent;
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether given configuration holds any include directive
+	 */
+	static boolean hasIncludes(final GitConfiguration config) {
+		for (final RootSection rootSection : config.getRootSections()) {
+			final String name = rootSection.getName();
+			if (name.equalsIgnoreCase("include")
+					|| name.equalsIgnoreCase("includeIf")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isInclude(final String section,
+			final String subSection, final String key) {
+		if (!key.equalsIgnoreCase("path")) {
+			return false;
+		}
+		return subSection == null ? section.equalsIgnoreCase("include")
+				: section.equalsIgnoreCase("includeIf");
+	}
+
+	/**
+	 * Loads given file along with every file it includes, directly or not.
+	 *
+	 * @throws FileNotFoundException
+	 *             if given file does not exist
+	 * @throws IOException
+	 *             if files include each other in a cycle
+	 */
+	GitConfiguration resolve(final Path path) throws IOException {
+		final Path root = path.toAbsolutePath().normalize();
+		final Map<Path, Fragment> fragments = new HashMap<Path, Fragment>();
+		List<Path> level = Collections.singletonList(root);
+		while (!level.isEmpty()) {
+			final Set<Path> next = new LinkedHashSet<Path>();
+			for (final Fragment fragment : getFragments(level)) {
+				fragments.put(fragment.path, fragment);
+				for (final Include include : fragment.includes) {
+					final Path target = getTarget(fragment, include);
+					if (target != null && !fragments.containsKey(target)
+							&& !level.contains(target)) {
+						next.add(target);
+					}
+				}
+			}
+			level = new ArrayList<Path>(next);
+		}
+		final GitConfiguration config = new GitConfiguration();
+		expand(root, fragments, new LinkedHashSet<Path>(), config);
+		return config;
+	}
+
+	/**
+	 * @return whether given file or a file it includes, directly or not,
+	 *         changed since it was last resolved, i.e. whether resolving it
+	 *         again would give another result
+	 */
+	boolean isStale(final Path path) throws IOException {
+		final Set<Path> visited = new HashSet<Path>();
+		final Deque<Path> pending = new ArrayDeque<Path>();
+		pending.add(path.toAbsolutePath().normalize());
+		while (!pending.isEmpty()) {
+			final Path file = pending.poll();
+			if (!visited.add(file)) {
+				continue;
+			}
+			final Fragment fragment = getCachedFragment(file);
+			if (fragment == null) {
+				return true;
+			}
+			for (final Include include : fragment.includes) {
+				final Path target = resolveTarget(fragment, include);
+				if (target == null) {
+					continue;
+				}
+				if (Files.isRegularFile(target)) {
+					pending.add(target);
+				} else if (isCached(target)) {
+					// was included, since deleted
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends the variables of given file to target configuration, expanding
+	 * its includes in place.
+	 */
+	private void expand(final Path path, final Map<Path, Fragment> fragments,
+			final Set<Path> including, final GitConfiguration config)
+			throws IOException {
+		if (!including.add(path)) {
+			final StringBuilder cycle = new StringBuilder();
+			boolean inCycle = false;
+			for (final Path file : including) {
+				inCycle |= file.equals(path);
+				if (inCycle) {
+					cycle.append(file).append(" -> ");
+				}
+			}
+			throw new IOException("Include cycle : " + cycle.append(path));
+		}
+		final Fragment fragment = fragments.get(path);
+		for (int i = 0; i < fragment.parts.size(); i++) {
+			final GitConfiguration part = fragment.parts.get(i);
+			if (part.hasSections()) {
+				// cached parts are shared, the target adopts a copy
+				config.append(part.copy());
+			}
+			if (i < fragment.includes.size()) {
+				final Path target = getTarget(fragment, fragment.includes
+						.get(i));
+				if (target != null && fragments.containsKey(target)) {
+					expand(target, fragments, including, config);
+				}
+			}
+		}
+		including.remove(path);
+	}
+
+	/**
+	 * @return file included by given directive, or null if its condition does
+	 *         not hold or the file does not exist
+	 */
+	private Path getTarget(final Fragment fragment, final Include include) {
+		final Path target = resolveTarget(fragment, include);
+		if (target != null && !Files.isRegularFile(target)) {
+			LOG.info("Skipping missing include : " + target);
+			synchronized (FRAGMENTS) {
+				// no longer included, it does not make includers stale
+				FRAGMENTS.remove(target);
+			}
+			return null;
+		}
+		return target;
+	}
+
+	/**
+	 * @return file named by given directive, existing or not, or null if its
+	 *         condition does not hold
+	 */
+	private Path resolveTarget(final Fragment fragment, final Include include) {
+		if (include.condition != null
+				&& !matches(include.condition, fragment.path)) {
+			return null;
+		}
+		return fragment.path.getParent().resolve(expandHome(include.path))
+				.normalize();
+	}
+
+	private static String expandHome(final String path) {
+		if (path.startsWith("~/")) {
+			return System.getProperty("user.home") + path.substring(1);
+		}
+		return path;
+	}
+
+	/**
+	 * Matches a condition against the repository directory, a pattern ending
+	 * with a slash matches every directory under it and a relative one may
+	 * match at any depth.
+	 */
+	private boolean matches(final String condition, final Path includingFile) {
+		String pattern;
+		boolean ignoreCase = false;
+		if (condition.startsWith("gitdir:")) {
+			pattern = condition.substring("gitdir:".length());
+		} else if (condition.startsWith("gitdir/i:")) {
+			pattern = condition.substring("gitdir/i:".length());
+			ignoreCase = true;
+		} else {
+			return false;
+		}
+		if (gitDir == null || pattern.isEmpty()) {
+			return false;
+		}
+		if (pattern.startsWith("./")) {
+			pattern = includingFile.getParent() + pattern.substring(1);
+		} else {
+			pattern = expandHome(pattern);
+		}
+		if (!Paths.get(pattern).isAbsolute()) {
+			pattern = "**/" + pattern;
+		}
+		if (pattern.endsWith("/")) {
+			pattern = pattern + "**";
+		}
+		String dir = gitDir.toString();
+		if (ignoreCase) {
+			pattern = pattern.toLowerCase();
+			dir = dir.toLowerCase();
+		}
+		return FileSystems.getDefault().getPathMatcher("glob:" + pattern)
+				.matches(Paths.get(dir));
+	}
+
+	/**
+	 * @return fragments of given files in order, parsing the ones not cached
+	 *         yet in parallel
+	 */
+	private static List<Fragment> getFragments(final List<Path> paths)
+			throws IOException {
+		final Fragment[] fragments = new Fragment[paths.size()];
+		final List<Integer> missing = new ArrayList<Integer>();
+		for (int i = 0; i < fragments.length; i++) {
+			fragments[i] = getCachedFragment(paths.get(i));
+			if (fragments[i] == null) {
+				missing.add(Integer.valueOf(i));
+			}
+		}
+		if (missing.size() == 1) {
+			final int index = missing.get(0).intValue();
+			fragments[index] = parse(paths.get(index));
+		} else if (!missing.isEmpty()) {
+			final List<Callable<Fragment>> tasks = new ArrayList<Callable<Fragment>>();
+			for (final Integer index : missing) {
+				final Path path = paths.get(index.intValue());
+				tasks.add(new Callable<Fragment>() {
+					@Override
+					public Fragment call() throws IOException {
+						return parse(path);
+					}
+				});
+			}
+			final Iterator<Integer> indexes = missing.iterator();
+			for (final Future<Fragment> future : ForkJoinPool.commonPool()
+					.invokeAll(tasks)) {
+				fragments[indexes.next().intValue()] = get(future);
+			}
+		}
+		final List<Fragment> result = new ArrayList<Fragment>(fragments.length);
+		Collections.addAll(result, fragments);
+		return result;
+	}
+
+	private static Fragment get(final Future<Fragment> future)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading includes", e);
+		}
+	}
+
+	private static Fragment getCachedFragment(final Path path)
+			throws IOException {
+		final Fragment fragment;
+		synchronized (FRAGMENTS) {
+			fragment = FRAGMENTS.get(path);
+		}
+		return fragment != null && fragment.isCurrent() ? fragment : null;
+	}
+
+	private static boolean isCached(final Path path) {
+		synchronized (FRAGMENTS) {
+			return FRAGMENTS.containsKey(path);
+		}
+	}
+
+	/**
+	 * Parses given file into a fragment and caches it.
+	 */
+	private static Fragment parse(final Path path) throws IOException {
+		// taken before reading, a change meanwhile makes the entry stale
+		final long lastModified = Files.getLastModifiedTime(path).toMillis();
+		final long size = Files.size(path);
+		final List<GitConfiguration> parts = new ArrayList<GitConfiguration>();
+		final List<Include> includes = new ArrayList<Include>();
+		GitConfiguration part = new GitConfiguration();
+		final FileChannel channel = FileHandler.open(path);
+		try {
+			final ConfigLexer lexer = FileHandler.createLexer(channel);
+			int token;
+			while ((token = lexer.next()) != ConfigLexer.END) {
+				if (token == ConfigLexer.VARIABLE
+						&& lexer.getKey().length() > 0) {
+					part.addVariable(part.getOrCreateSection(lexer.getSection(),
+							lexer.getSubSection()), GitConfiguration.getPath(lexer
+							.getSection(), lexer.getSubSection()), lexer.getKey(),
+							lexer.getValue());
+					if (isInclude(lexer.getSection(), lexer.getSubSection(),
+							lexer.getKey())) {
+						includes.add(new Include(lexer.getValue(), lexer
+								.getSubSection()));
+						parts.add(part);
+						part = new GitConfiguration();
+					}
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		parts.add(part);
+		final Fragment fragment = new Fragment(path, lastModified, size,
+				parts, includes);
+		synchronized (FRAGMENTS) {
+			FRAGMENTS.put(path, fragment);
+		}
+		return fragment;
+	}
+
+}
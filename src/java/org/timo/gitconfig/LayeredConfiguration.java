@@ -0,0 +1,981 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Thread-safe {@link Configuration} stacking several layers with git's
+ * precedence, e.g. system, global and repository configurations: a variable
+ * takes its value from the last layer setting it, and multi-valued variables
+ * hold the values of every layer in order.
+ *
+ * Reads are served by a merged copy of every layer kept up to date, so a
+ * lookup costs the same as on a single configuration whatever the number of
+ * layers. Changes made through this configuration or directly on a layer
+ * only recompute the variables they touched; direct changes are followed
+ * through layer change listeners, so they are seen once delivered.
+ *
+ * Changed variables are read back from the thread delivering the layer's
+ * change events, so a layer changed directly while in use must be
+ * thread-safe, e.g. a {@link ConcurrentConfiguration}. A plain
+ * {@link GitConfiguration} layer may only be changed through this
+ * configuration, which reads it back under its own lock.
+ *
+ * Writes go to the target layer, the last one unless another is chosen, and
+ * only variables addressable by composed key, i.e. of sections without dots
+ * in their name, are merged.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public class LayeredConfiguration implements Configuration {
+
+	private final List<Configuration> layers;
+
+	private volatile Configuration target;
+
+	private final GitConfiguration merged = new GitConfiguration();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final ChangeNotifier notifier = new ChangeNotifier(this);
+
+	/**
+	 * Whether the merged view keeps its sorted index, so prefix queries only
+	 * need the read lock.
+	 */
+	private volatile boolean sorted;
+
+	private final ConfigChangeListener layerListener = new ConfigChangeListener() {
+		@Override
+		public void configurationChanged(final Configuration layer,
+				final Set<String> composedKeys) {
+			refresh(composedKeys);
+		}
+	};
+
+	/**
+	 * @param layers
+	 *            configurations from the lowest precedence to the highest,
+	 *            e.g. system, global then repository; the ones changed
+	 *            directly must be thread-safe
+	 */
+	public LayeredConfiguration(final Configuration... layers) {
+		if (layers.length == 0) {
+			throw new IllegalArgumentException("At least one layer is required");
+		}
+		for (final Configuration layer : layers) {
+			if (layer == null) {
+				throw new NullPointerException("Null layers are not allowed");
+			}
+		}
+		this.layers = Collections.unmodifiableList(new ArrayList<Configuration>(
+				Arrays.asList(layers)));
+		this.target = layers[layers.length - 1];
+		merged.setNotifier(notifier);
+		merged.update(build());
+		for (final Configuration layer : this.layers) {
+			layer.addChangeListener("", layerListener);
+		}
+	}
+
+	/**
+	 * @return layers from the lowest precedence to the highest
+	 */
+	public List<Configuration> getLayers() {
+		return layers;
+	}
+
+	public Configuration getTargetLayer() {
+		return target;
+	}
+
+	/**
+	 * Sets the layer every write goes to.
+	 *
+	 * @param layer
+	 *            one of the layers of this configuration
+	 */
+	public void setTargetLayer(final Configuration layer) {
+		for (final Configuration current : layers) {
+			if (current == layer) {
+				target = layer;
+				return;
+			}
+		}
+		throw new IllegalArgumentException(
+				"Not a layer of this configuration : " + layer);
+	}
+
+	/**
+	 * Stops following changes made directly to the layers, so this
+	 * configuration can be garbage collected while they are still in use.
+	 */
+	public void detach() {
+		for (final Configuration layer : layers) {
+			layer.removeChangeListener(layerListener);
+		}
+	}
+
+	private static boolean isAddressable(final String composedKey) {
+		final int parts = composedKey.split("\\.").length;
+		return parts == 2 || parts == 3;
+	}
+
+	/**
+	 * @return a merged copy of every layer
+	 */
+	private GitConfiguration build() {
+		final GitConfiguration configuration = new GitConfiguration();
+		for (final Configuration layer : layers) {
+			for (final String composedKey : layer.getKeySet()) {
+				if (isAddressable(composedKey)) {
+					for (final String value : layer.getAll(composedKey)) {
+						configuration.add(composedKey, value);
+					}
+				}
+			}
+		}
+		return configuration;
+	}
+
+	/**
+	 * Recomputes given variables from the layers, only those whose values
+	 * differ are changed in the merged view.
+	 */
+	private void refresh(final Collection<String> composedKeys) {
+		lock.writeLock().lock();
+		try {
+			for (final String composedKey : composedKeys) {
+				if (isAddressable(composedKey)) {
+					final List<String> values = new ArrayList<String>();
+					for (final Configuration layer : layers) {
+						values.addAll(layer.getAll(composedKey));
+					}
+					if (!values.equals(merged.getAll(composedKey))) {
+						merged.setAll(composedKey, values);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void refresh(final String composedKey) {
+		refresh(Collections.singleton(composedKey));
+	}
+
+	/**
+	 * @return composed keys of the merged variables under given section path,
+	 *         to be called holding the write lock
+	 */
+	private Set<String> getMergedKeys(final String path) {
+		merged.sort();
+		sorted = true;
+		return new LinkedHashSet<String>(merged.subtree(path).keySet());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#addChangeListener(java.lang.String,
+	 * org.timo.gitconfig.ConfigChangeListener)
+	 */
+	@Override
+	public void addChangeListener(final String prefix,
+			final ConfigChangeListener listener) {
+		notifier.addListener(prefix, listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#removeChangeListener(org.timo.gitconfig
+	 * .ConfigChangeListener)
+	 */
+	@Override
+	public void removeChangeListener(final ConfigChangeListener listener) {
+		notifier.removeListener(listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#setChangeExecutor(java.util.concurrent
+	 * .Executor)
+	 */
+	@Override
+	public void setChangeExecutor(final Executor executor) {
+		notifier.setExecutor(executor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String)
+	 */
+	@Override
+	public String getValue(final String composedKey) {
+		lock.readLock().lock();
+		try {
+			return merged.getValue(composedKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getValue(org.timo.gitconfig.ConfigKey)
+	 */
+	@Override
+	public String getValue(final ConfigKey key) {
+		lock.readLock().lock();
+		try {
+			return merged.getValue(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName, final String key) {
+		lock.readLock().lock();
+		try {
+			return merged.getValue(sectionName, key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName,
+			final String subSectionName, final String key) {
+		lock.readLock().lock();
+		try {
+			return merged.getValue(sectionName, subSectionName, key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Integer getInt(final String composedKey) {
+		return Integer.valueOf(TypedValue.parseInt(getValue(composedKey)));
+	}
+
+	@Override
+	public Long getLong(final String composedKey) {
+		return Long.valueOf(TypedValue.parseLong(getValue(composedKey)));
+	}
+
+	@Override
+	public Double getDouble(final String composedKey) {
+		return Double.valueOf(getValue(composedKey));
+	}
+
+	@Override
+	public Boolean getBoolean(final String composedKey) {
+		return Boolean.valueOf(TypedValue.parseBoolean(getValue(composedKey)));
+	}
+
+	@Override
+	public int getInt(final String composedKey, final int defaultValue) {
+		return TypedValue.parseInt(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public long getLong(final String composedKey, final long defaultValue) {
+		return TypedValue.parseLong(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public double getDouble(final String composedKey, final double defaultValue) {
+		return TypedValue.parseDouble(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public boolean getBoolean(final String composedKey,
+			final boolean defaultValue) {
+		return TypedValue.parseBoolean(getValue(composedKey), defaultValue);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getKeySet()
+	 */
+	@Override
+	public Set<String> getKeySet() {
+		lock.readLock().lock();
+		try {
+			return merged.getKeySet();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues()
+	 */
+	@Override
+	public Collection<String> getValues() {
+		lock.readLock().lock();
+		try {
+			return merged.getValues();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues(java.lang.String)
+	 */
+	@Override
+	public Collection<String> getValues(final String composedKey) {
+		lock.readLock().lock();
+		try {
+			return merged.getValues(composedKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables()
+	 */
+	@Override
+	public Map<String, String> getVariables() {
+		lock.readLock().lock();
+		try {
+			return merged.getVariables();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables(java.lang.String)
+	 */
+	@Override
+	public Map<String, String> getVariables(final String composedKey) {
+		lock.readLock().lock();
+		try {
+			return merged.getVariables(composedKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getVariablesWithPrefix(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> getVariablesWithPrefix(final String prefix) {
+		if (!sorted) {
+			lock.writeLock().lock();
+			try {
+				merged.sort();
+				sorted = true;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		lock.readLock().lock();
+		try {
+			return Collections.unmodifiableSortedMap(new TreeMap<String, String>(
+					merged.getVariablesWithPrefix(prefix)));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#subtree(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> subtree(final String path) {
+		return getVariablesWithPrefix(path.concat("."));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#containsVariable(java.lang.String)
+	 */
+	@Override
+	public boolean containsVariable(final String composedKey) {
+		lock.readLock().lock();
+		try {
+			return merged.containsVariable(composedKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#containsVariable(org.timo.gitconfig.
+	 * ConfigKey)
+	 */
+	@Override
+	public boolean containsVariable(final ConfigKey key) {
+		return !getValue(key).isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		lock.readLock().lock();
+		try {
+			return merged.isEmpty();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getAll(java.lang.String)
+	 */
+	@Override
+	public List<String> getAll(final String composedKey) {
+		lock.readLock().lock();
+		try {
+			return merged.getAll(composedKey);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getTextContent()
+	 */
+	@Override
+	public String getTextContent() {
+		final StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Writes the merged variables of every layer.
+	 *
+	 * @see org.timo.gitconfig.Configuration#write(java.io.Writer)
+	 */
+	@Override
+	public void write(final Writer writer) throws IOException {
+		lock.readLock().lock();
+		try {
+			merged.write(writer);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.lang.String)
+	 */
+	@Override
+	public void save(final String fileName) throws IOException {
+		FileHandler.save(fileName, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.io.OutputStream)
+	 */
+	@Override
+	public void save(final OutputStream outputStream) throws IOException {
+		FileHandler.save(outputStream, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		// walks a copy of the merged view, later changes are not seen
+		return new ConfigurationIterator(copyMerged(), this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> spliterator() {
+		return new ConfigurationSpliterator(copyMerged().getRootSections());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#stream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#parallelStream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#findByRegex(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public Stream<Entry<String, String>> findByRegex(final String nameRegex,
+			final String valueRegex) {
+		final RegexFilter filter = new RegexFilter(nameRegex, valueRegex);
+		// copies of the candidate sections, searched out of the lock
+		final List<RootSection> candidates = new ArrayList<RootSection>();
+		lock.readLock().lock();
+		try {
+			for (final RootSection rootSection : merged.getRootSections()) {
+				if (filter.mayMatch(rootSection.getName())) {
+					candidates.add(rootSection.copy());
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return filter.filter(candidates);
+	}
+
+	/**
+	 * @return a copy of the merged view, taken under the read lock
+	 */
+	private GitConfiguration copyMerged() {
+		final GitConfiguration copy = new GitConfiguration();
+		lock.readLock().lock();
+		try {
+			for (final RootSection rootSection : merged.getRootSections()) {
+				copy.putSection(rootSection.copy());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return copy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void setValue(final String composedKey, final String value) {
+		lock.writeLock().lock();
+		try {
+			target.setValue(composedKey, value);
+			refresh(composedKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String key,
+			final String value) {
+		lock.writeLock().lock();
+		try {
+			target.setValue(sectionName, key, value);
+			refresh(sectionName + "." + key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String subSectionName,
+			final String key, final String value) {
+		lock.writeLock().lock();
+		try {
+			target.setValue(sectionName, subSectionName, key, value);
+			refresh(sectionName + "." + subSectionName + "." + key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#add(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void add(final String composedKey, final String value) {
+		lock.writeLock().lock();
+		try {
+			target.add(composedKey, value);
+			refresh(composedKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the matching values of the target layer only, values set by
+	 * other layers are kept.
+	 *
+	 * @see org.timo.gitconfig.Configuration#replaceAll(java.lang.String,
+	 *      java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void replaceAll(final String composedKey, final String value,
+			final String valueRegex) {
+		lock.writeLock().lock();
+		try {
+			target.replaceAll(composedKey, value, valueRegex);
+			refresh(composedKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the matching values of the target layer only, values set by
+	 * other layers are kept.
+	 *
+	 * @see org.timo.gitconfig.Configuration#unsetAll(java.lang.String,
+	 *      java.lang.String)
+	 */
+	@Override
+	public void unsetAll(final String composedKey, final String valueRegex) {
+		lock.writeLock().lock();
+		try {
+			target.unsetAll(composedKey, valueRegex);
+			refresh(composedKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#addVariables(java.util.Map)
+	 */
+	@Override
+	public void addVariables(final Map<String, String> variables) {
+		lock.writeLock().lock();
+		try {
+			target.addVariables(variables);
+			refresh(variables.keySet());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the variable from the target layer, a value set by another
+	 * layer becomes visible if there is one.
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String composedKey) {
+		lock.writeLock().lock();
+		try {
+			target.remove(composedKey);
+			refresh(composedKey);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String key) {
+		lock.writeLock().lock();
+		try {
+			target.remove(sectionName, key);
+			refresh(sectionName + "." + key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String subSectionName,
+			final String key) {
+		lock.writeLock().lock();
+		try {
+			target.remove(sectionName, subSectionName, key);
+			refresh(sectionName + "." + subSectionName + "." + key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName) {
+		lock.writeLock().lock();
+		try {
+			final Set<String> keys = getMergedKeys(sectionName);
+			target.removeSection(sectionName);
+			refresh(keys);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName,
+			final String subSectionName) {
+		lock.writeLock().lock();
+		try {
+			final Set<String> keys = getMergedKeys(sectionName + "."
+					+ subSectionName);
+			target.removeSection(sectionName, subSectionName);
+			refresh(keys);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String oldName, final String newName) {
+		final int dot = oldName.indexOf('.');
+		if (dot != -1) {
+			renameSection(oldName.substring(0, dot), oldName.substring(dot + 1),
+					newName);
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			final Set<String> keys = getMergedKeys(oldName);
+			target.renameSection(oldName, newName);
+			keys.addAll(target.subtree(newName).keySet());
+			refresh(keys);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String sectionName, final String oldName,
+			final String newName) {
+		// only a dotted name moves the sub-section to another root section
+		final String newPath = newName.indexOf('.') == -1 ? sectionName + "."
+				+ newName : newName;
+		lock.writeLock().lock();
+		try {
+			final Set<String> keys = getMergedKeys(sectionName + "." + oldName);
+			target.renameSection(sectionName, oldName, newName);
+			keys.addAll(target.subtree(newPath).keySet());
+			refresh(keys);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Loads given file into the target layer.
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.lang.String)
+	 */
+	@Override
+	public void load(final String fileName) throws IOException {
+		lock.writeLock().lock();
+		try {
+			target.load(fileName);
+			refresh(target.getKeySet());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Loads given stream into the target layer.
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.io.InputStream)
+	 */
+	@Override
+	public void load(final InputStream inputStream) throws IOException {
+		lock.writeLock().lock();
+		try {
+			target.load(inputStream);
+			refresh(target.getKeySet());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Creates a transaction committed as a transaction of the target layer
+	 * while holding the write lock: readers wait for the whole batch, and a
+	 * failing batch leaves the target layer untouched.
+	 *
+	 * @see org.timo.gitconfig.Configuration#beginTransaction()
+	 */
+	@Override
+	public ConfigTransaction beginTransaction() {
+		return new ConfigTransaction() {
+			@Override
+			void publish() {
+				lock.writeLock().lock();
+				try {
+					final Set<String> keys = new HashSet<String>(target
+							.getKeySet());
+					target.beginTransaction().addAll(this).commit();
+					keys.addAll(target.getKeySet());
+					refresh(keys);
+				} finally {
+					lock.writeLock().unlock();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Clears the target layer, variables of other layers are kept.
+	 *
+	 * @see org.timo.gitconfig.Configuration#clear()
+	 */
+	@Override
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			final Set<String> keys = target.getKeySet();
+			target.clear();
+			refresh(keys);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
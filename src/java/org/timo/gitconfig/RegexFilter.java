@@ -0,0 +1,166 @@
+package org.timo.gitconfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Matches variables against a name regular expression and an optional value
+ * regular expression, as git config --get-regexp does: both are searched
+ * anywhere in the variable path and value unless anchored.
+ *
+ * Compiled patterns are cached, since the same searches are usually run over
+ * and over. A name pattern anchored at the start with a literal prefix, e.g.
+ * "^remote\..*\.url$", only matches variables of sections starting with that
+ * prefix, so every other section is skipped as a whole.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class RegexFilter implements Predicate<Entry<String, String>> {
+
+	private static final int CACHE_SIZE = 64;
+
+	/**
+	 * Least recently used compiled patterns by regular expression.
+	 */
+	private static final Map<String, Pattern> PATTERNS = new LinkedHashMap<String, Pattern>(
+			CACHE_SIZE, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Entry<String, Pattern> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final Pattern namePattern;
+
+	private final Pattern valuePattern;
+
+	private final String literalPrefix;
+
+	/**
+	 * Root section name the prefix lies in, or null if the prefix may still
+	 * span several sections.
+	 */
+	private final String sectionName;
+
+	/**
+	 * @param nameRegex
+	 *            regular expression searched in variable paths
+	 * @param valueRegex
+	 *            regular expression searched in values, or null to match any
+	 *            value
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if any expression is invalid
+	 */
+	RegexFilter(final String nameRegex, final String valueRegex) {
+		if (nameRegex == null) {
+			throw new NullPointerException("Null name regex is not allowed");
+		}
+		this.namePattern = compile(nameRegex);
+		this.valuePattern = valueRegex == null ? null : compile(valueRegex);
+		this.literalPrefix = getLiteralPrefix(nameRegex);
+		final int sectionEnd = literalPrefix.indexOf('.');
+		this.sectionName = sectionEnd == -1 ? null : literalPrefix.substring(
+				0, sectionEnd);
+	}
+
+	static Pattern compile(final String regex) {
+		synchronized (PATTERNS) {
+			Pattern pattern = PATTERNS.get(regex);
+			if (pattern == null) {
+				pattern = Pattern.compile(regex);
+				PATTERNS.put(regex, pattern);
+			}
+			return pattern;
+		}
+	}
+
+	/**
+	 * Returns the text every match of given expression starts with, e.g.
+	 * "remote." for "^remote\..*\.url$". Only expressions anchored at the
+	 * start have one, and alternations are not looked into.
+	 */
+	static String getLiteralPrefix(final String regex) {
+		if (!regex.startsWith("^") || regex.indexOf('|') != -1) {
+			return "";
+		}
+		final StringBuilder prefix = new StringBuilder();
+		int i = 1;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == regex.length()
+						|| Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					// character classes, back references and quoting
+					break;
+				}
+				c = regex.charAt(++i);
+			} else if (".[]()*+?{}$^".indexOf(c) != -1) {
+				break;
+			}
+			i++;
+			if (i < regex.length() && "*?{".indexOf(regex.charAt(i)) != -1) {
+				// optional char, the prefix ends before it
+				break;
+			}
+			prefix.append(c);
+		}
+		return prefix.toString();
+	}
+
+	String getLiteralPrefix() {
+		return literalPrefix;
+	}
+
+	/**
+	 * @return false if no variable of given root section can match
+	 */
+	boolean mayMatch(final String rootSectionName) {
+		if (sectionName != null) {
+			return sectionName.equals(rootSectionName);
+		}
+		return rootSectionName.startsWith(literalPrefix);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.function.Predicate#test(java.lang.Object)
+	 */
+	@Override
+	public boolean test(final Entry<String, String> variable) {
+		return namePattern.matcher(variable.getKey()).find()
+				&& (valuePattern == null || valuePattern.matcher(
+						variable.getValue()).find());
+	}
+
+	/**
+	 * Streams the matching variables of given root sections, without visiting
+	 * the sections that can't hold any.
+	 */
+	Stream<Entry<String, String>> filter(
+			final Collection<RootSection> rootSections) {
+		final List<RootSection> candidates = new ArrayList<RootSection>();
+		for (final RootSection rootSection : rootSections) {
+			if (mayMatch(rootSection.getName())) {
+				candidates.add(rootSection);
+			}
+		}
+		return StreamSupport.stream(new ConfigurationSpliterator(candidates),
+				false).filter(this);
+	}
+
+}
@@ -0,0 +1,179 @@
+package org.timo.gitconfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ * 
+ * {@link ConcurrentConfiguration} that keeps itself in sync with a
+ * configuration file. The file's directory is watched by a daemon thread and
+ * every change is applied as a difference against a copy of current
+ * sections, published at once: readers on any thread see either the whole
+ * reloaded file or the previous one, never a reload in progress.
+ * 
+ * A reload is skipped when modification time and size did not change, or
+ * when the content hash is the same, unless a file it includes changed. A
+ * file that can't be parsed is ignored and the current variables are kept.
+ * Included files are not watched: a change to them alone is only picked up
+ * by the next call to {@link #reload()}, which then parses just the changed
+ * files.
+ * 
+ * @author Timoteo Ponce
+ * 
+ */
+public class ReloadingConfiguration extends ConcurrentConfiguration
+		implements Closeable {
+
+	private static final Logger LOG = Logger
+			.getLogger(ReloadingConfiguration.class.getName());
+
+	private final Path path;
+
+	private final IncludeResolver resolver;
+
+	private final WatchService watchService;
+
+	private long lastModified = -1;
+
+	private long size = -1;
+
+	private byte[] digest;
+
+	/**
+	 * Whether the file held include directives when last loaded.
+	 */
+	private boolean includes;
+
+	/**
+	 * Loads given file and starts watching it for changes.
+	 * 
+	 * @param fileName
+	 *            configuration source file
+	 * @throws IOException
+	 *             if file can't be read or watched
+	 */
+	public ReloadingConfiguration(final String fileName) throws IOException {
+		this.path = Paths.get(fileName).toAbsolutePath();
+		this.resolver = new IncludeResolver(IncludeResolver.getGitDir(path));
+		reload();
+		this.watchService = path.getFileSystem().newWatchService();
+		path.getParent().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		final Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "gitconfig-watcher-" + path.getFileName());
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Reloads the file if it, or a file it includes, changed since last time
+	 * it was read.
+	 * 
+	 * @return true if the file changed and its content was applied
+	 * @throws IOException
+	 *             if file can't be read
+	 * @throws IllegalArgumentException
+	 *             if file content can't be parsed
+	 */
+	public synchronized boolean reload() throws IOException {
+		final long currentModified = Files.getLastModifiedTime(path).toMillis();
+		final long currentSize = Files.size(path);
+		final boolean includesChanged = includes && resolver.isStale(path);
+		if (!includesChanged && currentModified == lastModified
+				&& currentSize == size) {
+			return false;
+		}
+		final byte[] content = Files.readAllBytes(path);
+		final byte[] currentDigest = digest(content);
+		lastModified = currentModified;
+		size = currentSize;
+		if (!includesChanged && Arrays.equals(currentDigest, digest)) {
+			return false;
+		}
+		GitConfiguration loaded = new GitConfiguration();
+		SourceLayout layout = new SourceLayout(ByteBuffer.wrap(content));
+		FileHandler.load(new ConfigLexer(ByteBuffer.wrap(content)), loaded,
+				layout);
+		layout.attach(path, currentModified, content.length);
+		includes = IncludeResolver.hasIncludes(loaded);
+		if (includes) {
+			// unchanged included files are taken from the fragment cache
+			loaded = resolver.resolve(path);
+			layout = null;
+		}
+		update(loaded, layout);
+		digest = currentDigest;
+		LOG.info("Configuration reloaded from " + path);
+		return true;
+	}
+
+	private static byte[] digest(final byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(content);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				final WatchKey key = watchService.take();
+				boolean changed = false;
+				for (final WatchEvent<?> event : key.pollEvents()) {
+					changed |= path.getFileName().equals(event.context());
+				}
+				key.reset();
+				if (changed) {
+					reloadQuietly();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ClosedWatchServiceException e) {
+			// watcher closed
+		}
+	}
+
+	private void reloadQuietly() {
+		try {
+			reload();
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Unable to reload " + path, e);
+		} catch (final IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "Unable to parse " + path, e);
+		} catch (final RuntimeException e) {
+			// the watcher must outlive any failed reload
+			LOG.log(Level.WARNING, "Unable to reload " + path, e);
+		}
+	}
+
+	/**
+	 * Stops watching the file, current variables are kept.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+}
@@ -121,6 +121,17 @@ class RootSection extends Section {
 		return values;
 	}
 
+	/**
+	 * @return number of variables in this section and its sub-sections
+	 */
+	int getAllSize() {
+		int size = size();
+		for (final Section section : sectionMap.values()) {
+			size += section.size();
+		}
+		return size;
+	}
+
 	public boolean isAllEmpty() {
 		boolean isEmpty = super.isEmpty() && sectionMap.isEmpty();
 		if (!isEmpty) {
@@ -134,6 +145,54 @@ class RootSection extends Section {
 		return isEmpty;
 	}
 
+	/**
+	 * Copies all variables and sub-sections of given section into this one,
+	 * overriding any existing variable. Sub-sections not present here are
+	 * adopted as they are.
+	 */
+	void merge(final RootSection rootSection) {
+		super.merge(rootSection);
+		for (final Section section : rootSection.getSections()) {
+			final Section current = sectionMap.get(section.getName());
+			if (current == null) {
+				sectionMap.put(section.getName(), section);
+			} else {
+				current.merge(section);
+			}
+		}
+	}
+
+	/**
+	 * Adds all variable values and sub-sections of given section to this one,
+	 * keeping the existing values. Sub-sections not present here are adopted
+	 * as they are.
+	 */
+	void append(final RootSection rootSection) {
+		super.append(rootSection);
+		for (final Section section : rootSection.getSections()) {
+			final Section current = sectionMap.get(section.getName());
+			if (current == null) {
+				sectionMap.put(section.getName(), section);
+			} else {
+				current.append(section);
+			}
+		}
+	}
+
+	/**
+	 * @return a new section holding copies of the variables and sub-sections
+	 *         of this one
+	 */
+	@Override
+	RootSection copy() {
+		final RootSection copy = new RootSection(getName());
+		copy.merge((Section) this);
+		for (final Section section : sectionMap.values()) {
+			copy.sectionMap.put(section.getName(), section.copy());
+		}
+		return copy;
+	}
+
 	public Collection<Section> getSections() {
 		return sectionMap.values();
 	}
@@ -1,9 +1,14 @@
 package org.timo.gitconfig;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Map.Entry;
 
 /**
  * Copyright (C) 2010 Timoteo Ponce
@@ -17,12 +22,86 @@ public class Section {
 
 	private final Map<String, String> variables = new HashMap<String, String>();
 
+	/**
+	 * Every value of the variables set more than once, in order. The last one
+	 * is also the value held in variables, so single values cost nothing
+	 * more. Null until a variable repeats.
+	 */
+	private Map<String, String[]> repeatedValues;
+
 	public Section(final String name) {
 		this.name = name;
 	}
 
+	/**
+	 * Sets the single value of a variable, replacing all of its values.
+	 */
 	public void setVariable(final String key, final String value) {
 		variables.put(key, value);
+		if (repeatedValues != null) {
+			repeatedValues.remove(key);
+		}
+	}
+
+	/**
+	 * Adds a value to a variable, keeping its current values.
+	 */
+	void addVariable(final String key, final String value) {
+		final String last = variables.put(key, value);
+		if (last != null) {
+			if (repeatedValues == null) {
+				repeatedValues = new HashMap<String, String[]>(4);
+			}
+			final String[] values = repeatedValues.get(key);
+			final String[] added;
+			if (values == null) {
+				added = new String[] { last, value };
+			} else {
+				added = Arrays.copyOf(values, values.length + 1);
+				added[values.length] = value;
+			}
+			repeatedValues.put(key, added);
+		}
+	}
+
+	/**
+	 * Replaces all values of a variable, removing it if there are none.
+	 */
+	void setVariableValues(final String key, final List<String> values) {
+		if (values.isEmpty()) {
+			removeVariable(key);
+		} else if (values.size() == 1) {
+			setVariable(key, values.get(0));
+		} else {
+			variables.put(key, values.get(values.size() - 1));
+			if (repeatedValues == null) {
+				repeatedValues = new HashMap<String, String[]>(4);
+			}
+			repeatedValues.put(key, values.toArray(new String[values.size()]));
+		}
+	}
+
+	/**
+	 * @return every value of given variable in order, or null if it is not
+	 *         set more than once
+	 */
+	String[] getRepeatedValues(final String key) {
+		return repeatedValues == null ? null : repeatedValues.get(key);
+	}
+
+	/**
+	 * @return every value of given variable in order, empty if not present
+	 */
+	List<String> getVariableValues(final String key) {
+		final String[] values = getRepeatedValues(key);
+		if (values != null) {
+			return Arrays.asList(values.clone());
+		}
+		final String value = variables.get(key);
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(value);
 	}
 
 	public String getVariable(final String key) {
@@ -47,8 +126,103 @@ public class Section {
 		return outputVars;
 	}
 
+	/**
+	 * Copies all variables of given section into this one, overriding any
+	 * existing variable.
+	 */
+	void merge(final Section section) {
+		if (repeatedValues != null) {
+			repeatedValues.keySet().removeAll(section.variables.keySet());
+		}
+		variables.putAll(section.variables);
+		copyRepeatedValues(section);
+	}
+
+	/**
+	 * Adds all values of given section variables to this one, keeping the
+	 * existing ones.
+	 */
+	void append(final Section section) {
+		for (final Entry<String, String> variable : section.variables
+				.entrySet()) {
+			final String[] values = section.getRepeatedValues(variable
+					.getKey());
+			if (values == null) {
+				addVariable(variable.getKey(), variable.getValue());
+			} else {
+				for (final String value : values) {
+					addVariable(variable.getKey(), value);
+				}
+			}
+		}
+	}
+
+	private void copyRepeatedValues(final Section section) {
+		if (section.repeatedValues != null && !section.repeatedValues.isEmpty()) {
+			if (repeatedValues == null) {
+				repeatedValues = new HashMap<String, String[]>(
+						section.repeatedValues);
+			} else {
+				repeatedValues.putAll(section.repeatedValues);
+			}
+		}
+	}
+
+	/**
+	 * @return a new section holding the same variables
+	 */
+	Section copy() {
+		final Section copy = new Section(name);
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * @return read-only view of the variables of this section, without copying
+	 *         them
+	 */
+	Set<Entry<String, String>> getVariableEntries() {
+		return Collections.unmodifiableMap(variables).entrySet();
+	}
+
+	/**
+	 * @return iterator over the variables of this section, removing through
+	 *         it removes the variable
+	 */
+	Iterator<Entry<String, String>> getVariableIterator() {
+		final Iterator<Entry<String, String>> iterator = variables.entrySet()
+				.iterator();
+		if (repeatedValues == null) {
+			return iterator;
+		}
+		return new Iterator<Entry<String, String>>() {
+
+			private Entry<String, String> current;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				current = iterator.next();
+				return current;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				repeatedValues.remove(current.getKey());
+			}
+		};
+	}
+
 	public void removeVariable(final String key) {
 		variables.remove(key);
+		if (repeatedValues != null) {
+			repeatedValues.remove(key);
+		}
 	}
 
 	public Set<String> getKeySet() {
@@ -59,6 +233,13 @@ public class Section {
 		return variables.isEmpty();
 	}
 
+	/**
+	 * @return number of variables in this section
+	 */
+	int size() {
+		return variables.size();
+	}
+
 	public Collection<String> getValues() {
 		return variables.values();
 	}
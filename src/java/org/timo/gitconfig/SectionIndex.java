@@ -0,0 +1,101 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ * 
+ * {@link SectionSource} over a mapped configuration file. The file is scanned
+ * once for section headers only, keeping the byte offset of every header that
+ * belongs to each root section, e.g. [remote "origin"] and [remote "upstream"]
+ * are both offsets of 'remote'. A section is parsed only when it is loaded.
+ * 
+ * @author Timoteo Ponce
+ * 
+ */
+class SectionIndex implements SectionSource {
+
+	private final ByteBuffer buffer;
+
+	private final Map<String, Offsets> offsetsMap = new HashMap<String, Offsets>();
+
+	SectionIndex(final ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		final ConfigLexer lexer = new ConfigLexer(buffer.duplicate());
+		while (lexer.nextSection() != ConfigLexer.END) {
+			Offsets offsets = offsetsMap.get(lexer.getSection());
+			if (offsets == null) {
+				offsets = new Offsets();
+				offsetsMap.put(lexer.getSection(), offsets);
+			}
+			offsets.add((int) lexer.getPosition());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.SectionSource#getSectionNames()
+	 */
+	@Override
+	public Collection<String> getSectionNames() {
+		return offsetsMap.keySet();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.timo.gitconfig.SectionSource#loadSection(java.lang.String,
+	 * org.timo.gitconfig.RootSection)
+	 */
+	@Override
+	public void loadSection(final String sectionName, final RootSection target)
+			throws IOException {
+		final Offsets offsets = offsetsMap.get(sectionName);
+		if (offsets != null) {
+			// repeated keys add up within the file, then replace the values
+			// target already holds
+			final RootSection loaded = new RootSection(sectionName);
+			for (int i = 0; i < offsets.size; i++) {
+				loadBlock(offsets.values[i], loaded);
+			}
+			target.merge(loaded);
+		}
+	}
+
+	// reads a single header and its variables, up to the next header
+	private void loadBlock(final int offset, final RootSection target)
+			throws IOException {
+		final ByteBuffer block = buffer.duplicate();
+		block.position(offset);
+		final ConfigLexer lexer = new ConfigLexer(block);
+		lexer.next();
+		final String subSectionName = lexer.getSubSection();
+		final Section section = subSectionName == null ? target : target
+				.getOrCreateSection(subSectionName);
+		while (lexer.next() == ConfigLexer.VARIABLE) {
+			section.addVariable(lexer.getKey(), lexer.getValue());
+		}
+	}
+
+	private static final class Offsets {
+
+		private int[] values = new int[1];
+
+		private int size;
+
+		void add(final int offset) {
+			if (size == values.length) {
+				final int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = offset;
+		}
+	}
+
+}
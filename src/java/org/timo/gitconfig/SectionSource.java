@@ -0,0 +1,35 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ * 
+ * Origin of sections that are loaded on demand, a {@link GitConfiguration}
+ * only asks for a section the first time it is used.
+ * 
+ * @author Timoteo Ponce
+ * 
+ */
+interface SectionSource {
+
+	/**
+	 * @return names of all the root sections this source can load
+	 */
+	Collection<String> getSectionNames();
+
+	/**
+	 * Loads all variables and sub-sections of the given root section, in
+	 * declaration order, into target section.
+	 * 
+	 * @param sectionName
+	 *            name of the root section to load
+	 * @param target
+	 *            section receiving the variables
+	 * @throws IOException
+	 *             if the source can't be read
+	 */
+	void loadSection(String sectionName, RootSection target) throws IOException;
+
+}
@@ -0,0 +1,546 @@
+package org.timo.gitconfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Positions of the section headers and variables of a configuration file,
+ * recorded while it is loaded. Saving back to that file compares them with
+ * the current sections and only patches the lines that differ: a changed
+ * value is replaced on its own line, removed variables and sections lose
+ * their lines, new variables go after the last line of their section and
+ * new sections at the end of the file. Comments, blank lines, ordering and
+ * indentation are kept, and the file is only written from the first changed
+ * byte on.
+ *
+ * Lines are matched by section, key and occurrence, so a renamed section is
+ * written at the end under its new name. A layout is only used while its
+ * file keeps the modification time and size it was loaded or saved with.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class SourceLayout {
+
+	private static final byte KEEP = 0;
+
+	private static final byte REPLACE = 1;
+
+	private static final byte DELETE = 2;
+
+	private static final String DEFAULT_INDENT = "\t";
+
+	/**
+	 * Section header, or variable declaration if it has a key.
+	 */
+	private static final class Line {
+
+		/**
+		 * Offset of the header bracket or of the key.
+		 */
+		private final long start;
+
+		/**
+		 * Offset after the closing bracket of a header, or after the line
+		 * break ending a variable.
+		 */
+		private final long end;
+
+		/**
+		 * Offset after the value of a variable, where its inline comment or
+		 * line break starts; same as {@link #end} for a header.
+		 */
+		private final long valueEnd;
+
+		private final String section;
+
+		private final String subSection;
+
+		private final String key;
+
+		private final String value;
+
+		/**
+		 * Blanks before the token on its line, null if the token does not
+		 * start its line.
+		 */
+		private final String indent;
+
+		private Line(final long start, final long end, final long valueEnd,
+				final String section, final String subSection,
+				final String key, final String value, final String indent) {
+			this.start = start;
+			this.end = end;
+			this.valueEnd = valueEnd;
+			this.section = section;
+			this.subSection = subSection;
+			this.key = key;
+			this.value = value;
+			this.indent = indent;
+		}
+
+		private Line moveTo(final long newStart) {
+			return new Line(newStart, end + newStart - start, valueEnd
+					+ newStart - start, section, subSection, key, value, indent);
+		}
+
+		private long getLineStart() {
+			return indent == null ? start : start - indent.length();
+		}
+
+		private String getPath() {
+			return GitConfiguration.getPath(section, subSection);
+		}
+	}
+
+	/**
+	 * Bytes following a patch position, as read from the file, and the bytes
+	 * replacing them.
+	 */
+	private static final class Patch {
+
+		private final long from;
+
+		private final long tailStart;
+
+		private final byte[] tail;
+
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		private Patch(final long from, final long tailStart, final byte[] tail) {
+			this.from = from;
+			this.tailStart = tailStart;
+			this.tail = tail;
+		}
+
+		private long getFileEnd() {
+			return tailStart + tail.length;
+		}
+
+		private byte get(final long offset) {
+			return tail[(int) (offset - tailStart)];
+		}
+
+		/**
+		 * @return offset the next written byte will have in the file
+		 */
+		private long position() {
+			return from + output.size();
+		}
+
+		private void copy(final long start, final long end) {
+			if (end > start) {
+				output.write(tail, (int) (start - tailStart), (int) (end - start));
+			}
+		}
+
+		private void write(final String text) {
+			write(text.getBytes(FileHandler.CHARSET));
+		}
+
+		private void write(final byte[] bytes) {
+			output.write(bytes, 0, bytes.length);
+		}
+
+		private boolean isAtLineStart() {
+			if (output.size() > 0) {
+				final byte[] written = output.toByteArray();
+				return written[written.length - 1] == '\n';
+			}
+			return from == 0 || get(from - 1) == '\n';
+		}
+
+		/**
+		 * @return line break ending given line, empty at the end of the file
+		 */
+		private String getLineBreak(final Line line) {
+			if (line.end == 0 || get(line.end - 1) != '\n') {
+				return "";
+			}
+			return line.end > 1 && get(line.end - 2) == '\r' ? "\r\n" : "\n";
+		}
+
+		/**
+		 * @return offset after the line break ending the line of given offset,
+		 *         if only blanks or a comment lie in between, otherwise given
+		 *         offset
+		 */
+		private long getLineEnd(final long offset) {
+			long i = offset;
+			while (i < getFileEnd()
+					&& (get(i) == ' ' || get(i) == '\t' || get(i) == '\r')) {
+				i++;
+			}
+			if (i < getFileEnd() && (get(i) == '#' || get(i) == ';')) {
+				while (i < getFileEnd() && get(i) != '\n') {
+					i++;
+				}
+			}
+			if (i == getFileEnd()) {
+				return i;
+			}
+			return get(i) == '\n' ? i + 1 : offset;
+		}
+	}
+
+	private final List<Line> lines = new ArrayList<Line>();
+
+	/**
+	 * Bytes lines are being recorded from, released once attached to a file.
+	 */
+	private ByteBuffer source;
+
+	private Path path;
+
+	private long lastModified = -1;
+
+	private long size = -1;
+
+	/**
+	 * @param source
+	 *            bytes being parsed, every recorded position is an absolute
+	 *            offset within them
+	 */
+	SourceLayout(final ByteBuffer source) {
+		this.source = source;
+	}
+
+	void addHeader(final ConfigLexer lexer) {
+		lines.add(createLine(source, lexer, null, null, 0));
+	}
+
+	void addVariable(final ConfigLexer lexer) {
+		lines.add(createLine(source, lexer, lexer.getKey(), lexer.getValue(), 0));
+	}
+
+	/**
+	 * Adds the lines of given layout, recorded from the bytes following the
+	 * ones of this layout.
+	 */
+	void append(final SourceLayout layout) {
+		lines.addAll(layout.lines);
+	}
+
+	/**
+	 * Binds this layout to the file it was recorded from.
+	 *
+	 * @param lastModified
+	 *            modification time of the file before it was read
+	 * @param size
+	 *            size of the file that was read
+	 */
+	void attach(final Path path, final long lastModified, final long size) {
+		this.path = path.toAbsolutePath().normalize();
+		this.lastModified = lastModified;
+		this.size = size;
+		this.source = null;
+	}
+
+	/**
+	 * @return whether this layout was recorded from given file
+	 */
+	boolean isAt(final Path file) {
+		return path != null && path.equals(file.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * @return whether this layout was recorded from given file, and still
+	 *         describes it
+	 */
+	boolean isSourceOf(final Path file) {
+		if (!isAt(file)) {
+			return false;
+		}
+		try {
+			return Files.getLastModifiedTime(path).toMillis() == lastModified
+					&& Files.size(path) == size;
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	private static Line createLine(final ByteBuffer buffer,
+			final ConfigLexer lexer, final String key, final String value,
+			final long offset) {
+		final int start = (int) lexer.getPosition();
+		final long end = lexer.getEnd() + offset;
+		final long valueEnd = key == null ? end : lexer.getValueEnd() + offset;
+		return new Line(start + offset, end, valueEnd, lexer.getSection(),
+				lexer.getSubSection(), key, value, getIndent(buffer, start));
+	}
+
+	private static String getIndent(final ByteBuffer buffer, final int start) {
+		int lineStart = start;
+		while (lineStart > 0 && buffer.get(lineStart - 1) != '\n') {
+			final byte c = buffer.get(lineStart - 1);
+			if (c != ' ' && c != '\t') {
+				return null;
+			}
+			lineStart--;
+		}
+		final byte[] blanks = new byte[start - lineStart];
+		for (int i = 0; i < blanks.length; i++) {
+			blanks[i] = buffer.get(lineStart + i);
+		}
+		// a handful of distinct indents are shared by every line
+		return new String(blanks, FileHandler.CHARSET).intern();
+	}
+
+	private static int increment(final Map<String, Integer> counts,
+			final String key) {
+		final Integer count = counts.get(key);
+		final int incremented = count == null ? 1 : count.intValue() + 1;
+		counts.put(key, Integer.valueOf(incremented));
+		return incremented;
+	}
+
+	/**
+	 * Writes the changes of given configuration, relative to this layout, to
+	 * the file this layout is attached to, then describes the patched file.
+	 */
+	void patch(final GitConfiguration config) throws IOException {
+		final int count = lines.size();
+		final Map<String, Integer> lastLines = new HashMap<String, Integer>();
+		final Map<String, Integer> lastVariables = new HashMap<String, Integer>();
+		final Map<String, Integer> occurrences = new HashMap<String, Integer>();
+		final Set<String> rootsWithVariables = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			final Line line = lines.get(i);
+			final String linePath = line.getPath();
+			lastLines.put(linePath, Integer.valueOf(i));
+			if (line.key != null) {
+				lastVariables.put(linePath, Integer.valueOf(i));
+				increment(occurrences, linePath.concat(line.key));
+				rootsWithVariables.add(line.section);
+			}
+		}
+
+		// what happens to every line
+		final byte[] actions = new byte[count];
+		final String[] replacements = new String[count];
+		final Map<String, Integer> seen = new HashMap<String, Integer>();
+		long from = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			final Line line = lines.get(i);
+			final String linePath = line.getPath();
+			final Section section = config.getSection(line.section,
+					line.subSection);
+			if (line.key == null) {
+				// headers of sections that never had variables are kept
+				final boolean hadVariables = line.subSection == null ? rootsWithVariables
+						.contains(line.section)
+						: lastVariables.containsKey(linePath);
+				if (section == null && hadVariables) {
+					actions[i] = DELETE;
+				}
+			} else {
+				final int index = increment(seen, linePath.concat(line.key)) - 1;
+				final List<String> values = section == null ? Collections
+						.<String> emptyList() : section
+						.getVariableValues(line.key);
+				if (index >= values.size()) {
+					actions[i] = DELETE;
+				} else if (!values.get(index).equals(line.value)) {
+					actions[i] = REPLACE;
+					replacements[i] = values.get(index);
+				}
+			}
+			if (actions[i] != KEEP) {
+				from = Math.min(from, line.getLineStart());
+			}
+		}
+
+		// new values of sections in the file go after their last line
+		final Map<Integer, List<String[]>> insertions = new HashMap<Integer, List<String[]>>();
+		for (final Entry<String, Integer> entry : lastLines.entrySet()) {
+			final Line last = lines.get(entry.getValue().intValue());
+			final Section section = config.getSection(last.section,
+					last.subSection);
+			if (section == null) {
+				continue;
+			}
+			final List<String[]> added = new ArrayList<String[]>();
+			for (final String key : section.getKeySet()) {
+				final List<String> values = section.getVariableValues(key);
+				final Integer present = occurrences.get(entry.getKey().concat(
+						key));
+				for (int j = present == null ? 0 : present.intValue(); j < values
+						.size(); j++) {
+					added.add(new String[] { key, values.get(j) });
+				}
+			}
+			if (!added.isEmpty()) {
+				insertions.put(entry.getValue(), added);
+				from = Math.min(from, last.end);
+			}
+		}
+
+		// sections missing from the file go at its end
+		final StringWriter appended = new StringWriter();
+		for (final RootSection rootSection : config.getRootSections()) {
+			final String name = rootSection.getName();
+			if (!rootSection.isEmpty()
+					&& !lastLines.containsKey(GitConfiguration.getPath(name,
+							null))) {
+				GitConfiguration.writeHeader(appended, name, null);
+				GitConfiguration.writeVariables(appended, rootSection);
+			}
+			for (final Section section : rootSection.getSections()) {
+				if (!section.isEmpty()
+						&& !lastLines.containsKey(GitConfiguration.getPath(name,
+								section.getName()))) {
+					GitConfiguration.writeHeader(appended, name, section
+							.getName());
+					GitConfiguration.writeVariables(appended, section);
+				}
+			}
+		}
+		if (appended.getBuffer().length() > 0) {
+			from = Math.min(from, size);
+		}
+		if (from != Long.MAX_VALUE) {
+			write(from, actions, replacements, insertions, lastVariables,
+					appended.toString());
+		}
+	}
+
+	private void write(final long from, final byte[] actions,
+			final String[] replacements,
+			final Map<Integer, List<String[]>> insertions,
+			final Map<String, Integer> lastVariables, final String appended)
+			throws IOException {
+		final FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final List<Line> patched = new ArrayList<Line>(lines.size());
+		final long end;
+		try {
+			// the byte before the patch tells whether it starts a line
+			final long tailStart = Math.max(0, from - 1);
+			final ByteBuffer tail = ByteBuffer
+					.allocate((int) (size - tailStart));
+			while (tail.hasRemaining()) {
+				if (channel.read(tail, tailStart + tail.position()) < 0) {
+					throw new EOFException("File shrank while saving : " + path);
+				}
+			}
+			final Patch patch = new Patch(from, tailStart, tail.array());
+			long position = from;
+			for (int i = 0; i < lines.size(); i++) {
+				final Line line = lines.get(i);
+				final long lineStart = line.getLineStart();
+				if (lineStart < from) {
+					patched.add(line);
+				} else {
+					patch.copy(position, lineStart);
+					if (actions[i] == KEEP) {
+						patched.add(line.moveTo(patch.position() + line.start
+								- lineStart));
+						patch.copy(lineStart, line.end);
+						position = line.end;
+					} else if (actions[i] == REPLACE) {
+						patch.copy(lineStart, line.start);
+						final long start = patch.position();
+						patch.write(line.key + " = "
+								+ FileHandler.quote(replacements[i]));
+						final long valueEnd = patch.position();
+						// an inline comment and the line break stay as they are
+						patch.copy(line.valueEnd, line.end);
+						patched.add(new Line(start, patch.position(), valueEnd,
+								line.section, line.subSection, line.key,
+								replacements[i], line.indent));
+						position = line.end;
+					} else if (line.key == null) {
+						// the rest of the header line goes along
+						position = patch.getLineEnd(line.end);
+					} else {
+						// a variable sharing its line leaves the line break
+						position = line.indent == null ? line.end
+								- patch.getLineBreak(line).length() : line.end;
+					}
+				}
+				final List<String[]> added = insertions.get(Integer.valueOf(i));
+				if (added != null) {
+					final long at = line.key == null ? patch
+							.getLineEnd(line.end) : line.end;
+					patch.copy(position, at);
+					position = Math.max(position, at);
+					if (!patch.isAtLineStart()) {
+						patch.write("\n");
+					}
+					final Integer lastVariable = lastVariables.get(line
+							.getPath());
+					String indent = lastVariable == null ? null : lines
+							.get(lastVariable.intValue()).indent;
+					if (indent == null) {
+						indent = DEFAULT_INDENT;
+					}
+					for (final String[] variable : added) {
+						patch.write(indent);
+						final long start = patch.position();
+						patch.write(variable[0] + " = "
+								+ FileHandler.quote(variable[1]));
+						final long valueEnd = patch.position();
+						patch.write("\n");
+						patched.add(new Line(start, patch.position(), valueEnd,
+								line.section, line.subSection, variable[0],
+								variable[1], indent));
+					}
+				}
+			}
+			patch.copy(position, size);
+			if (!appended.isEmpty()) {
+				if (!patch.isAtLineStart()) {
+					patch.write("\n");
+				}
+				final long offset = patch.position();
+				final byte[] bytes = appended.getBytes(FileHandler.CHARSET);
+				final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				final ConfigLexer lexer = new ConfigLexer(buffer.duplicate());
+				int token;
+				while ((token = lexer.next()) != ConfigLexer.END) {
+					if (token == ConfigLexer.SECTION) {
+						patched.add(createLine(buffer, lexer, null, null,
+								offset));
+					} else if (token == ConfigLexer.VARIABLE
+							&& lexer.getKey().length() > 0) {
+						patched.add(createLine(buffer, lexer, lexer.getKey(),
+								lexer.getValue(), offset));
+					}
+				}
+				patch.write(bytes);
+			}
+			final ByteBuffer output = ByteBuffer.wrap(patch.output
+					.toByteArray());
+			long written = from;
+			while (output.hasRemaining()) {
+				written += channel.write(output, written);
+			}
+			channel.truncate(written);
+			end = written;
+		} finally {
+			channel.close();
+		}
+		lines.clear();
+		lines.addAll(patched);
+		size = end;
+		lastModified = Files.getLastModifiedTime(path).toMillis();
+	}
+
+}
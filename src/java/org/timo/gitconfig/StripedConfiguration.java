@@ -0,0 +1,1041 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Thread-safe {@link Configuration} for write-heavy usage. Root sections are
+ * spread over a fixed number of stripes by the hash of their name, each
+ * stripe being a {@link GitConfiguration} guarded by its own read-write lock.
+ * Operations on a single section only lock the stripe holding it, so threads
+ * working on different sections rarely contend.
+ *
+ * Operations spanning several stripes (renames between stripes, loading, or
+ * reading the whole configuration) lock every stripe involved, always in
+ * ascending stripe order, so they see a consistent state and can't deadlock
+ * with each other.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+public class StripedConfiguration implements Configuration {
+
+	private static final int DEFAULT_STRIPES = 16;
+
+	private final GitConfiguration[] stripes;
+
+	private final ReadWriteLock[] locks;
+
+	private final ChangeNotifier notifier = new ChangeNotifier(this);
+
+	/**
+	 * Whether every stripe keeps its sorted index, so prefix queries only
+	 * need read locks.
+	 */
+	private volatile boolean sorted;
+
+	public StripedConfiguration() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripeCount
+	 *            number of stripes, rounded up to a power of two
+	 */
+	public StripedConfiguration(final int stripeCount) {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("Invalid stripe count : "
+					+ stripeCount);
+		}
+		int size = 1;
+		while (size < stripeCount) {
+			size <<= 1;
+		}
+		stripes = new GitConfiguration[size];
+		locks = new ReadWriteLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new GitConfiguration();
+			stripes[i].setNotifier(notifier);
+			locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Creates a configuration over copies of given stripes, recording the
+	 * keys changed on them instead of notifying listeners.
+	 */
+	private StripedConfiguration(final GitConfiguration[] source) {
+		stripes = new GitConfiguration[source.length];
+		locks = new ReadWriteLock[source.length];
+		final ChangeNotifier changes = new ChangeNotifier(null);
+		for (int i = 0; i < source.length; i++) {
+			stripes[i] = source[i].copy();
+			stripes[i].setNotifier(changes);
+			locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Returns the stripe of given section, only the root section name (up to
+	 * the first dot) is hashed so every variable path and sub-section of a
+	 * section maps to the same stripe.
+	 */
+	private int stripeIndex(final String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (c == '.') {
+				break;
+			}
+			hash = 31 * hash + c;
+		}
+		hash ^= hash >>> 16;
+		return hash & (stripes.length - 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#addChangeListener(java.lang.String,
+	 * org.timo.gitconfig.ConfigChangeListener)
+	 */
+	@Override
+	public void addChangeListener(final String prefix,
+			final ConfigChangeListener listener) {
+		notifier.addListener(prefix, listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#removeChangeListener(org.timo.gitconfig
+	 * .ConfigChangeListener)
+	 */
+	@Override
+	public void removeChangeListener(final ConfigChangeListener listener) {
+		notifier.removeListener(listener);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#setChangeExecutor(java.util.concurrent
+	 * .Executor)
+	 */
+	@Override
+	public void setChangeExecutor(final Executor executor) {
+		notifier.setExecutor(executor);
+	}
+
+	private void lockAllForRead() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i].readLock().lock();
+		}
+	}
+
+	private void unlockAllForRead() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].readLock().unlock();
+		}
+	}
+
+	private void lockAllForWrite() {
+		for (int i = 0; i < locks.length; i++) {
+			locks[i].writeLock().lock();
+		}
+	}
+
+	private void unlockAllForWrite() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String)
+	 */
+	@Override
+	public String getValue(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getValue(composedKey);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getValue(org.timo.gitconfig.ConfigKey)
+	 */
+	@Override
+	public String getValue(final ConfigKey key) {
+		final int index = stripeIndex(key.getSectionName());
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getValue(key);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName, final String key) {
+		final int index = stripeIndex(sectionName);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getValue(sectionName, key);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public String getValue(final String sectionName,
+			final String subSectionName, final String key) {
+		final int index = stripeIndex(sectionName);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getValue(sectionName, subSectionName, key);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	@Override
+	public Integer getInt(final String composedKey) {
+		return Integer.valueOf(TypedValue.parseInt(getValue(composedKey)));
+	}
+
+	@Override
+	public Long getLong(final String composedKey) {
+		return Long.valueOf(TypedValue.parseLong(getValue(composedKey)));
+	}
+
+	@Override
+	public Double getDouble(final String composedKey) {
+		return Double.valueOf(getValue(composedKey));
+	}
+
+	@Override
+	public Boolean getBoolean(final String composedKey) {
+		return Boolean.valueOf(TypedValue.parseBoolean(getValue(composedKey)));
+	}
+
+	@Override
+	public int getInt(final String composedKey, final int defaultValue) {
+		return TypedValue.parseInt(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public long getLong(final String composedKey, final long defaultValue) {
+		return TypedValue.parseLong(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public double getDouble(final String composedKey, final double defaultValue) {
+		return TypedValue.parseDouble(getValue(composedKey), defaultValue);
+	}
+
+	@Override
+	public boolean getBoolean(final String composedKey,
+			final boolean defaultValue) {
+		return TypedValue.parseBoolean(getValue(composedKey), defaultValue);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues(java.lang.String)
+	 */
+	@Override
+	public Collection<String> getValues(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getValues(composedKey);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables(java.lang.String)
+	 */
+	@Override
+	public Map<String, String> getVariables(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getVariables(composedKey);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#getVariablesWithPrefix(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> getVariablesWithPrefix(final String prefix) {
+		if (!sorted) {
+			sortStripes();
+		}
+		final SortedMap<String, String> variables = new TreeMap<String, String>();
+		if (prefix.indexOf('.') != -1) {
+			// the whole prefix lies within a single section
+			final int index = stripeIndex(prefix);
+			locks[index].readLock().lock();
+			try {
+				variables.putAll(stripes[index].getVariablesWithPrefix(prefix));
+			} finally {
+				locks[index].readLock().unlock();
+			}
+		} else {
+			lockAllForRead();
+			try {
+				for (final GitConfiguration stripe : stripes) {
+					variables.putAll(stripe.getVariablesWithPrefix(prefix));
+				}
+			} finally {
+				unlockAllForRead();
+			}
+		}
+		return Collections.unmodifiableSortedMap(variables);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#subtree(java.lang.String)
+	 */
+	@Override
+	public SortedMap<String, String> subtree(final String path) {
+		return getVariablesWithPrefix(path.concat("."));
+	}
+
+	private void sortStripes() {
+		lockAllForWrite();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				stripe.sort();
+			}
+			sorted = true;
+		} finally {
+			unlockAllForWrite();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#containsVariable(java.lang.String)
+	 */
+	@Override
+	public boolean containsVariable(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].containsVariable(composedKey);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.timo.gitconfig.Configuration#containsVariable(org.timo.gitconfig.
+	 * ConfigKey)
+	 */
+	@Override
+	public boolean containsVariable(final ConfigKey key) {
+		return !getValue(key).isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getKeySet()
+	 */
+	@Override
+	public Set<String> getKeySet() {
+		final Set<String> keySet = new HashSet<String>();
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				keySet.addAll(stripe.getKeySet());
+			}
+		} finally {
+			unlockAllForRead();
+		}
+		return keySet;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getValues()
+	 */
+	@Override
+	public Collection<String> getValues() {
+		final Collection<String> values = new ArrayList<String>();
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				values.addAll(stripe.getValues());
+			}
+		} finally {
+			unlockAllForRead();
+		}
+		return values;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getVariables()
+	 */
+	@Override
+	public Map<String, String> getVariables() {
+		final Map<String, String> variables = new HashMap<String, String>();
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				variables.putAll(stripe.getVariables());
+			}
+		} finally {
+			unlockAllForRead();
+		}
+		return variables;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				if (!stripe.isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			unlockAllForRead();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getTextContent()
+	 */
+	@Override
+	public String getTextContent() {
+		final StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#write(java.io.Writer)
+	 */
+	@Override
+	public void write(final Writer writer) throws IOException {
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				stripe.write(writer);
+			}
+		} finally {
+			unlockAllForRead();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.lang.String)
+	 */
+	@Override
+	public void save(final String fileName) throws IOException {
+		FileHandler.save(fileName, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#save(java.io.OutputStream)
+	 */
+	@Override
+	public void save(final OutputStream outputStream) throws IOException {
+		FileHandler.save(outputStream, this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		// walks a copy of the stripes, later changes are not seen
+		return new ConfigurationIterator(copyStripes(), this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Iterable#spliterator()
+	 */
+	@Override
+	public Spliterator<Entry<String, String>> spliterator() {
+		return new ConfigurationSpliterator(copyStripes().getRootSections());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#stream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#parallelStream()
+	 */
+	@Override
+	public Stream<Entry<String, String>> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#findByRegex(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public Stream<Entry<String, String>> findByRegex(final String nameRegex,
+			final String valueRegex) {
+		final RegexFilter filter = new RegexFilter(nameRegex, valueRegex);
+		final String prefix = filter.getLiteralPrefix();
+		// copies of the candidate sections, searched out of the locks
+		final List<RootSection> candidates = new ArrayList<RootSection>();
+		if (prefix.indexOf('.') != -1) {
+			final int index = stripeIndex(prefix);
+			locks[index].readLock().lock();
+			try {
+				copyCandidates(stripes[index], filter, candidates);
+			} finally {
+				locks[index].readLock().unlock();
+			}
+		} else {
+			lockAllForRead();
+			try {
+				for (final GitConfiguration stripe : stripes) {
+					copyCandidates(stripe, filter, candidates);
+				}
+			} finally {
+				unlockAllForRead();
+			}
+		}
+		return filter.filter(candidates);
+	}
+
+	private static void copyCandidates(final GitConfiguration stripe,
+			final RegexFilter filter, final List<RootSection> candidates) {
+		for (final RootSection rootSection : stripe.getRootSections()) {
+			if (filter.mayMatch(rootSection.getName())) {
+				candidates.add(rootSection.copy());
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of every stripe sections, taken under read locks
+	 */
+	private GitConfiguration copyStripes() {
+		final GitConfiguration copy = new GitConfiguration();
+		lockAllForRead();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				for (final RootSection rootSection : stripe.getRootSections()) {
+					copy.putSection(rootSection.copy());
+				}
+			}
+		} finally {
+			unlockAllForRead();
+		}
+		return copy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void setValue(final String composedKey, final String value) {
+		final int index = stripeIndex(composedKey);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].setValue(composedKey, value);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String key,
+			final String value) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].setValue(sectionName, key, value);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#setValue(java.lang.String,
+	 * java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setValue(final String sectionName, final String subSectionName,
+			final String key, final String value) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].setValue(sectionName, subSectionName, key, value);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#getAll(java.lang.String)
+	 */
+	@Override
+	public List<String> getAll(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].readLock().lock();
+		try {
+			return stripes[index].getAll(composedKey);
+		} finally {
+			locks[index].readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#add(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void add(final String composedKey, final String value) {
+		final int index = stripeIndex(composedKey);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].add(composedKey, value);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#replaceAll(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void replaceAll(final String composedKey, final String value,
+			final String valueRegex) {
+		final int index = stripeIndex(composedKey);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].replaceAll(composedKey, value, valueRegex);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#unsetAll(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void unsetAll(final String composedKey, final String valueRegex) {
+		final int index = stripeIndex(composedKey);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].unsetAll(composedKey, valueRegex);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#addVariables(java.util.Map)
+	 */
+	@Override
+	public void addVariables(final Map<String, String> variables) {
+		lockAllForWrite();
+		try {
+			for (final Entry<String, String> entry : variables.entrySet()) {
+				stripes[stripeIndex(entry.getKey())].setValue(entry.getKey(),
+						entry.getValue());
+			}
+		} finally {
+			unlockAllForWrite();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String composedKey) {
+		final int index = stripeIndex(composedKey);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].remove(composedKey);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String key) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].remove(sectionName, key);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#remove(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void remove(final String sectionName, final String subSectionName,
+			final String key) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].remove(sectionName, subSectionName, key);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].removeSection(sectionName);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#removeSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void removeSection(final String sectionName,
+			final String subSectionName) {
+		final int index = stripeIndex(sectionName);
+		locks[index].writeLock().lock();
+		try {
+			stripes[index].removeSection(sectionName, subSectionName);
+		} finally {
+			locks[index].writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String oldName, final String newName) {
+		final String[] keys = oldName.split("\\.");
+		if (keys.length > 1) {
+			renameSection(keys[0], keys[1], newName);
+		} else {
+			rename(oldName, null, newName, stripeIndex(newName));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#renameSection(java.lang.String,
+	 * java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void renameSection(final String sectionName, final String oldName,
+			final String newName) {
+		// only a dotted name moves the sub-section to another root section
+		final int target = newName.indexOf('.') == -1 ? stripeIndex(sectionName)
+				: stripeIndex(newName);
+		rename(sectionName, oldName, newName, target);
+	}
+
+	/**
+	 * Renames a section within its stripe, or moves it to target stripe
+	 * holding both stripe locks.
+	 *
+	 * @param oldName
+	 *            sub-section being renamed, null to rename the root section
+	 */
+	private void rename(final String sectionName, final String oldName,
+			final String newName, final int target) {
+		final int source = stripeIndex(sectionName);
+		final int first = Math.min(source, target);
+		final int second = Math.max(source, target);
+		locks[first].writeLock().lock();
+		if (second != first) {
+			locks[second].writeLock().lock();
+		}
+		try {
+			if (source == target) {
+				rename(stripes[source], sectionName, oldName, newName);
+			} else {
+				final RootSection rootSection = stripes[source]
+						.removeRootSection(sectionName);
+				if (rootSection != null) {
+					final GitConfiguration moved = new GitConfiguration();
+					moved.putSection(rootSection);
+					rename(moved, sectionName, oldName, newName);
+					for (final RootSection renamed : moved.getRootSections()) {
+						stripes[stripeIndex(renamed.getName())]
+								.putSection(renamed);
+					}
+				}
+			}
+		} finally {
+			if (second != first) {
+				locks[second].writeLock().unlock();
+			}
+			locks[first].writeLock().unlock();
+		}
+	}
+
+	private static void rename(final GitConfiguration configuration,
+			final String sectionName, final String oldName,
+			final String newName) {
+		if (oldName == null) {
+			configuration.renameSection(sectionName, newName);
+		} else {
+			configuration.renameSection(sectionName, oldName, newName);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.lang.String)
+	 */
+	@Override
+	public void load(final String fileName) throws IOException {
+		final GitConfiguration loaded = new GitConfiguration();
+		loaded.load(fileName);
+		distribute(loaded);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#load(java.io.InputStream)
+	 */
+	@Override
+	public void load(final InputStream inputStream) throws IOException {
+		final GitConfiguration loaded = new GitConfiguration();
+		loaded.load(inputStream);
+		distribute(loaded);
+	}
+
+	/**
+	 * Merges the sections of given configuration into their stripes, parsing
+	 * is done beforehand so stripes are only locked while merging.
+	 */
+	private void distribute(final GitConfiguration loaded) {
+		final GitConfiguration[] parts = new GitConfiguration[stripes.length];
+		for (final RootSection rootSection : loaded.getRootSections()) {
+			final int index = stripeIndex(rootSection.getName());
+			if (parts[index] == null) {
+				parts[index] = new GitConfiguration();
+			}
+			parts[index].putSection(rootSection);
+		}
+		lockAllForWrite();
+		try {
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] != null) {
+					stripes[i].merge(parts[i]);
+				}
+			}
+		} finally {
+			unlockAllForWrite();
+		}
+	}
+
+	/**
+	 * Creates a transaction applied to copies of the stripes, swapped in
+	 * while holding every stripe lock: readers wait for the whole batch, and
+	 * a failing batch leaves the stripes untouched.
+	 *
+	 * @see org.timo.gitconfig.Configuration#beginTransaction()
+	 */
+	@Override
+	public ConfigTransaction beginTransaction() {
+		return new ConfigTransaction() {
+			@Override
+			void publish() {
+				lockAllForWrite();
+				try {
+					// changes go to copies of the stripes, swapped in once
+					// every one of them succeeded
+					final StripedConfiguration next = new StripedConfiguration(
+							stripes);
+					applyTo(next);
+					final ChangeNotifier changes = next.stripes[0]
+							.detachNotifier();
+					for (int i = 0; i < stripes.length; i++) {
+						stripes[i] = next.stripes[i];
+						stripes[i].setNotifier(notifier);
+					}
+					changes.drainTo(notifier);
+				} finally {
+					unlockAllForWrite();
+				}
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.timo.gitconfig.Configuration#clear()
+	 */
+	@Override
+	public void clear() {
+		lockAllForWrite();
+		try {
+			for (final GitConfiguration stripe : stripes) {
+				stripe.clear();
+			}
+		} finally {
+			unlockAllForWrite();
+		}
+	}
+
+}
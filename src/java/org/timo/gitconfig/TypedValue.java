@@ -0,0 +1,175 @@
+package org.timo.gitconfig;
+
+/**
+ * Copyright (C) 2010 Timoteo Ponce
+ *
+ * Variable value along with its parsed forms, each parsed the first time it
+ * is requested. Parsing follows git-config rules:
+ *
+ * <pre>
+ * --int   : decimal number, optionally suffixed by k, m or g (1024, 1048576, 1073741824)
+ * --bool  : true, yes, on or false, no, off (case ignored), or a number being non zero
+ * </pre>
+ *
+ * Configurations shared between threads don't keep parsed forms, as they
+ * would be cached on reads: their typed getters parse the value on every
+ * call through the static methods, which take an empty value, i.e. a
+ * missing variable, as the default value.
+ *
+ * @author Timoteo Ponce
+ *
+ */
+final class TypedValue {
+
+	private final String source;
+
+	private boolean longParsed;
+
+	private long longValue;
+
+	private boolean booleanParsed;
+
+	private boolean booleanValue;
+
+	private boolean doubleParsed;
+
+	private double doubleValue;
+
+	TypedValue(final String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @return value this instance was parsed from
+	 */
+	String getSource() {
+		return source;
+	}
+
+	boolean isEmpty() {
+		return source.isEmpty();
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if value is not a number fitting an int
+	 */
+	int getInt() {
+		return toInt(getLong(), source);
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if value is not a number
+	 */
+	long getLong() {
+		if (!longParsed) {
+			longValue = parseLong(source);
+			longParsed = true;
+		}
+		return longValue;
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if value is not a number
+	 */
+	double getDouble() {
+		if (!doubleParsed) {
+			doubleValue = Double.parseDouble(source);
+			doubleParsed = true;
+		}
+		return doubleValue;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if value is not a boolean
+	 */
+	boolean getBoolean() {
+		if (!booleanParsed) {
+			booleanValue = parseBoolean(source);
+			booleanParsed = true;
+		}
+		return booleanValue;
+	}
+
+	static int parseInt(final String value) {
+		return toInt(parseLong(value), value);
+	}
+
+	static int parseInt(final String value, final int defaultValue) {
+		return value.isEmpty() ? defaultValue : parseInt(value);
+	}
+
+	static long parseLong(final String value, final long defaultValue) {
+		return value.isEmpty() ? defaultValue : parseLong(value);
+	}
+
+	static double parseDouble(final String value, final double defaultValue) {
+		return value.isEmpty() ? defaultValue : Double.parseDouble(value);
+	}
+
+	static boolean parseBoolean(final String value, final boolean defaultValue) {
+		return value.isEmpty() ? defaultValue : parseBoolean(value);
+	}
+
+	private static int toInt(final long number, final String value) {
+		if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Numeric value out of range : "
+					+ value);
+		}
+		return (int) number;
+	}
+
+	static long parseLong(final String value) {
+		final int last = value.length() - 1;
+		long unit = 1;
+		if (last > 0) {
+			switch (value.charAt(last)) {
+			case 'k':
+			case 'K':
+				unit = 1024L;
+				break;
+			case 'm':
+			case 'M':
+				unit = 1024L * 1024L;
+				break;
+			case 'g':
+			case 'G':
+				unit = 1024L * 1024L * 1024L;
+				break;
+			default:
+				break;
+			}
+		}
+		if (unit == 1) {
+			return Long.parseLong(value);
+		}
+		final long number = Long.parseLong(value.substring(0, last));
+		if (number > Long.MAX_VALUE / unit || number < Long.MIN_VALUE / unit) {
+			throw new NumberFormatException("Numeric value out of range : "
+					+ value);
+		}
+		return number * unit;
+	}
+
+	static boolean parseBoolean(final String value) {
+		if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes")
+				|| value.equalsIgnoreCase("on")) {
+			return true;
+		}
+		if (value.isEmpty() || value.equalsIgnoreCase("false")
+				|| value.equalsIgnoreCase("no")
+				|| value.equalsIgnoreCase("off")) {
+			return false;
+		}
+		try {
+			return parseLong(value) != 0;
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid boolean value : "
+					+ value);
+		}
+	}
+
+}
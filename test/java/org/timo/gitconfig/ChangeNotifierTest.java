@@ -0,0 +1,75 @@
+package org.timo.gitconfig;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ *
+ */
+public class ChangeNotifierTest {
+
+	private static ConfigChangeListener createListener() {
+		return new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				// nothing to do
+			}
+		};
+	}
+
+	@Test
+	public void removeEveryRegistration() {
+		final ChangeNotifier notifier = new ChangeNotifier(
+				new GitConfiguration());
+		final ConfigChangeListener listener = createListener();
+		final ConfigChangeListener other = createListener();
+		notifier.addListener("x", listener);
+		notifier.addListener("y.z", listener);
+		notifier.addListener("y.z", listener);
+		notifier.addListener("y", other);
+
+		notifier.removeListener(listener);
+		Assert.assertTrue(notifier.hasListeners());
+		notifier.removeListener(other);
+		Assert.assertFalse(notifier.hasListeners());
+		notifier.removeListener(other);
+		Assert.assertFalse(notifier.hasListeners());
+	}
+
+	@Test
+	public void survivesRejectedDelivery() {
+		final Configuration config = new ConcurrentConfiguration();
+		final Set<String> changed = new HashSet<String>();
+		config.addChangeListener("", new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				changed.addAll(composedKeys);
+			}
+		});
+		final ExecutorService shutdown = Executors.newSingleThreadExecutor();
+		shutdown.shutdown();
+		config.setChangeExecutor(shutdown);
+		config.setValue("core.editor", "vim");
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+
+		config.setChangeExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				command.run();
+			}
+		});
+		config.setValue("core.pager", "less");
+		Assert.assertTrue(changed.contains("core.editor"));
+		Assert.assertTrue(changed.contains("core.pager"));
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.timo.gitconfig;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ *
+ */
+public class ConcurrentConfigurationTest {
+
+	@Test
+	public void readWrite() {
+		final Configuration config = new ConcurrentConfiguration();
+		config.setValue("core.editor", "vim");
+		config.setValue("remote.origin.url", "git://host/repo.git");
+		config.setValue("core.compression", "1k");
+
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("git://host/repo.git", config.getValue("remote",
+				"origin", "url"));
+		Assert.assertEquals(1024, config.getInt("core.compression", 0));
+
+		config.renameSection("remote", "origin", "upstream");
+		config.remove("core.editor");
+		Assert.assertEquals("", config.getValue("core.editor"));
+		Assert.assertEquals("git://host/repo.git", config
+				.getValue("remote.upstream.url"));
+	}
+
+	@Test
+	public void removeWhileIterating() {
+		final Configuration config = new ConcurrentConfiguration();
+		config.setValue("core.editor", "vim");
+		config.setValue("remote.origin.url", "git://host/repo.git");
+
+		for (final Iterator<Entry<String, String>> iterator = config.iterator(); iterator
+				.hasNext();) {
+			if (iterator.next().getKey().startsWith("remote.")) {
+				iterator.remove();
+			}
+		}
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertFalse(config.containsVariable("remote.origin.url"));
+	}
+
+	@Test
+	public void readersSeeWholeChanges() throws InterruptedException {
+		final ConcurrentConfiguration config = new ConcurrentConfiguration();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 500; i++) {
+					final Map<String, String> variables = new HashMap<String, String>();
+					variables.put("pair.first", String.valueOf(i));
+					variables.put("pair.second", String.valueOf(i));
+					config.addVariables(variables);
+				}
+			}
+		};
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (writer.isAlive()) {
+					final Map<String, String> pair = config.getVariables("pair");
+					if (pair.containsKey("pair.first")
+							&& !pair.get("pair.first").equals(
+									pair.get("pair.second"))) {
+						failure.set(pair.toString());
+					}
+				}
+			}
+		};
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+
+		Assert.assertNull(failure.get());
+		Assert.assertEquals("499", config.getValue("pair.first"));
+	}
+
+	@Test
+	public void commitTransaction() throws InterruptedException {
+		final ConcurrentConfiguration config = new ConcurrentConfiguration();
+		config.setValue("remote.origin.url", "git://host/0.git");
+		config.setValue("remote.origin.fetch", "0");
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 1; i <= 500; i++) {
+					config.beginTransaction().setValue("remote.origin.url",
+							"git://host/" + i + ".git").setValue(
+							"remote.origin.fetch", String.valueOf(i)).commit();
+				}
+			}
+		};
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (writer.isAlive()) {
+					final Map<String, String> origin = config
+							.getVariables("remote.origin");
+					if (!origin.get("url").equals(
+							"git://host/" + origin.get("fetch") + ".git")) {
+						failure.set(origin.toString());
+					}
+				}
+			}
+		};
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+
+		Assert.assertNull(failure.get());
+		Assert.assertEquals("500", config.getValue("remote.origin.fetch"));
+	}
+
+	@Test
+	public void changeListeners() throws InterruptedException {
+		final ConcurrentConfiguration config = new ConcurrentConfiguration();
+		final Set<String> changed = new HashSet<String>();
+		final CountDownLatch delivered = new CountDownLatch(1);
+		config.addChangeListener("remote", new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				synchronized (changed) {
+					changed.addAll(composedKeys);
+					if (changed.contains("remote.origin.fetch")) {
+						Assert.assertEquals("0", configuration
+								.getValue("remote.origin.fetch"));
+						delivered.countDown();
+					}
+				}
+			}
+		});
+		config.beginTransaction().setValue("remote.origin.url",
+				"git://host/0.git").setValue("remote.origin.fetch", "0")
+				.setValue("core.editor", "vim").commit();
+
+		Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		synchronized (changed) {
+			Assert.assertFalse(changed.contains("core.editor"));
+		}
+	}
+
+	@Test
+	public void failingTransaction() {
+		final Configuration config = new ConcurrentConfiguration();
+		config.setValue("remote.origin.url", "git://host/repo.git");
+		try {
+			config.beginTransaction().setValue("a.b", "1").renameSection(
+					"remote", "upstream").setValue("bogus", "2").commit();
+			Assert.fail("Invalid key must fail the transaction");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals("", config.getValue("a.b"));
+		Assert.assertEquals("git://host/repo.git", config
+				.getValue("remote.origin.url"));
+		Assert.assertEquals(1, config.getKeySet().size());
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.timo.gitconfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.timo.gitconfig.ConfigEventReader.Event;
+
+/**
+ * @author Timoteo Ponce
+ * 
+ */
+public class ConfigEventReaderTest {
+
+	@Test
+	public void readEvents() throws IOException {
+		final String content = "# header\n[core]\n\teditor = vim\n"
+				+ "[remote \"origin\"]\n\turl = git://host/repo.git\n";
+		final ConfigEventReader reader = FileHandler
+				.createEventReader(new ByteArrayInputStream(content.getBytes()));
+
+		Assert.assertEquals(Event.COMMENT, reader.next());
+		Assert.assertEquals("header", reader.getComment());
+		Assert.assertEquals(0, reader.getPosition());
+
+		Assert.assertEquals(Event.SECTION_START, reader.next());
+		Assert.assertEquals("core", reader.getSection());
+		Assert.assertNull(reader.getSubSection());
+		Assert.assertEquals(2, reader.getLine());
+
+		Assert.assertEquals(Event.VARIABLE, reader.next());
+		Assert.assertEquals("editor", reader.getKey());
+		Assert.assertEquals("vim", reader.getValue());
+		Assert.assertEquals(content.indexOf("editor"), reader.getPosition());
+
+		Assert.assertEquals(Event.SECTION_START, reader.next());
+		Assert.assertEquals("remote", reader.getSection());
+		Assert.assertEquals("origin", reader.getSubSection());
+		Assert.assertEquals(content.indexOf("[remote"), reader.getPosition());
+
+		Assert.assertEquals(Event.VARIABLE, reader.next());
+		Assert.assertEquals("git://host/repo.git", reader.getValue());
+
+		Assert.assertEquals(Event.END, reader.next());
+		Assert.assertFalse(reader.hasNext());
+		reader.close();
+	}
+
+	@Test
+	public void stopEarly() throws IOException {
+		final ConfigEventReader reader = FileHandler
+				.createEventReader("resources/config-1");
+		String url = null;
+		try {
+			while (url == null && reader.next() != Event.END) {
+				if (reader.getEvent() == Event.VARIABLE
+						&& "url".equals(reader.getKey())) {
+					url = reader.getValue();
+				}
+			}
+			Assert.assertEquals("origin", reader.getSubSection());
+			Assert.assertTrue(reader.hasNext());
+		} finally {
+			reader.close();
+		}
+		Assert.assertEquals("http://git.kernel.org/pub/scm/git/git.git", url);
+		Assert.assertEquals(Event.END, reader.next());
+	}
+
+}
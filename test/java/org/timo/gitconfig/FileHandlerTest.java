@@ -0,0 +1,309 @@
+package org.timo.gitconfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ * 
+ */
+public class FileHandlerTest {
+
+	@Test
+	public void loadFile() throws IOException {
+		final Configuration config = FileHandler
+				.loadConfiguration("resources/config-1");
+
+		Assert.assertEquals("false", config.getValue("core.autocrlf"));
+		Assert.assertEquals("emacs", config.getValue("core.editor"));
+		Assert.assertEquals("cat-file commit HEAD", config
+				.getValue("alias.last"));
+		Assert.assertEquals("http://git.kernel.org/pub/scm/git/git.git",
+				config.getValue("remote.origin.url"));
+		Assert.assertEquals("+refs/heads/*:refs/remotes/origin/*", config
+				.getValue("remote.origin.fetch"));
+	}
+
+	@Test
+	public void loadStream() throws IOException {
+		final String content = "[core]\n\teditor = vim\n"
+				+ "[project 'config']\n  query = a=b ; c\n  enabled\n"
+				+ "[branch.main]\n  remote = origin";
+		final Configuration config = FileHandler
+				.loadConfiguration(new ByteArrayInputStream(content.getBytes()));
+
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("a=b", config.getValue("project.config.query"));
+		Assert.assertEquals("true", config.getValue("project.config.enabled"));
+		Assert.assertEquals("origin", config.getValue("branch.main.remote"));
+	}
+
+	@Test
+	public void loadPath() throws IOException {
+		final Configuration config = FileHandler.loadConfiguration(Paths
+				.get("resources/config-1"));
+
+		Assert.assertEquals("Timoteo Ponce", config.getValue("user.name"));
+		Assert.assertEquals("auto", config.getValue("color.interactive"));
+	}
+
+	@Test
+	public void loadUnicodeValues() throws IOException {
+		final String content = "[user \"cami\u00f1o\"]\n\tname = Jos\u00e9 \u00d1u\u00f1ez \n";
+		final Configuration config = FileHandler
+				.loadConfiguration(new ByteArrayInputStream(content
+						.getBytes("UTF-8")));
+
+		Assert.assertEquals("Jos\u00e9 \u00d1u\u00f1ez", config
+				.getValue("user.cami\u00f1o.name"));
+	}
+
+	@Test
+	public void loadLargeFile() throws IOException {
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; content.length() <= ChunkedParser.PARALLEL_THRESHOLD; i++) {
+			content.append("[remote \"r" + (i % 500) + "\"]\n\turl = http://host/"
+					+ i + "\n# comment\n[core]\n\tcounter = " + i + "\n");
+		}
+		final Path file = Files.createTempFile("gitconfig", ".large");
+		try {
+			Files.write(file, content.toString().getBytes("UTF-8"));
+			final Configuration config = FileHandler.loadConfiguration(file);
+			final Configuration expected = FileHandler
+					.loadConfiguration(Files.newInputStream(file));
+
+			Assert.assertEquals(expected.getVariables(), config.getVariables());
+			Assert.assertEquals(expected.getValue("core.counter"), config
+					.getValue("core.counter"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void saveFile() throws IOException {
+		final Configuration config = new GitConfiguration();
+		config.setValue("user.name", "Jos\u00e9 \u00d1u\u00f1ez");
+		config.setValue("remote.origin.url", "git://host/repo.git");
+		final Path file = Files.createTempFile("gitconfig", ".save");
+		try {
+			config.save(file.toString());
+			final Configuration loaded = FileHandler.loadConfiguration(file);
+
+			Assert.assertEquals(config.getVariables(), loaded.getVariables());
+			Assert.assertEquals(config.getTextContent(), new String(Files
+					.readAllBytes(file), "UTF-8"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void savePatchesChangedLines() throws IOException {
+		final Path file = Files.createTempFile("gitconfig", ".patch");
+		try {
+			Files.write(file, ("# user settings\n" + "[user]\n"
+					+ "\tname = Timo\n" + "\temail = old@example.com\n"
+					+ "[core]\n" + "    editor = vi\n" + "    pager = less\n"
+					+ "[alias]  # shortcuts\n" + "\tst = status\n"
+					+ "\tco = checkout\n" + "# end\n").getBytes("UTF-8"));
+			final Configuration config = FileHandler.loadConfiguration(file);
+			config.setValue("user.email", "new@example.com");
+			config.remove("core.pager");
+			config.setValue("core.autocrlf", "true");
+			config.removeSection("alias");
+			config.setValue("branch.master.remote", "origin");
+			config.save(file.toString());
+
+			Assert.assertEquals("# user settings\n" + "[user]\n"
+					+ "\tname = Timo\n" + "\temail = new@example.com\n"
+					+ "[core]\n" + "    editor = vi\n"
+					+ "    autocrlf = true\n" + "# end\n"
+					+ "[branch 'master'] \n" + "\t\t remote = origin\n\n",
+					new String(Files.readAllBytes(file), "UTF-8"));
+			Assert.assertEquals(config.getVariables(), FileHandler
+					.loadConfiguration(file).getVariables());
+
+			// the patched lines are known to the next save
+			config.setValue("core.autocrlf", "input");
+			config.add("branch.master.merge", "refs/heads/master");
+			config.save(file.toString());
+			final String content = new String(Files.readAllBytes(file),
+					"UTF-8");
+			Assert.assertTrue(content.startsWith("# user settings\n"));
+			Assert.assertTrue(content.contains("    autocrlf = input\n# end\n"));
+			Assert.assertEquals(config.getVariables(), FileHandler
+					.loadConfiguration(file).getVariables());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void loadQuotedValues() throws IOException {
+		final String content = "[core]\n\tbare = false ; c\n"
+				+ "\teditor = \"vi ; x\"  # quoted\n"
+				+ "\tpager = less   -R\t#\n"
+				+ "\tcolor = \"#ff0000\"\n"
+				+ "\tpath = C:\\\\dir \\\"a\\\"\\tb\n"
+				+ "\tlong = one \\\n\ttwo\n";
+		final Configuration config = FileHandler
+				.loadConfiguration(new ByteArrayInputStream(content.getBytes()));
+
+		Assert.assertEquals("false", config.getValue("core.bare"));
+		Assert.assertEquals("vi ; x", config.getValue("core.editor"));
+		Assert.assertEquals("less   -R", config.getValue("core.pager"));
+		Assert.assertEquals("#ff0000", config.getValue("core.color"));
+		Assert.assertEquals("C:\\dir \"a\"\tb", config.getValue("core.path"));
+		Assert.assertEquals("one  two", config.getValue("core.long"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void loadUnterminatedQuote() throws IOException {
+		FileHandler.loadConfiguration(new ByteArrayInputStream(
+				"[core]\n\teditor = \"vi\n".getBytes()));
+	}
+
+	@Test
+	public void saveQuotedValues() throws IOException {
+		final String[] values = { "log --oneline #graph", "less ;x",
+				" leading", "trailing ", "say \"hi\"", "C:\\dir\\", "a\tb",
+				"two\nlines", "a  b", "" };
+		final Configuration config = new GitConfiguration();
+		for (int i = 0; i < values.length; i++) {
+			config.setValue("alias.v" + i, values[i]);
+		}
+		final Path file = Files.createTempFile("gitconfig", ".quote");
+		try {
+			config.save(file.toString());
+			final Configuration loaded = FileHandler.loadConfiguration(file);
+			Assert.assertEquals(config.getVariables(), loaded.getVariables());
+
+			// patched lines are quoted as well
+			loaded.setValue("alias.v0", "more # y");
+			loaded.setValue("alias.v1", "\"quoted\" ; \\");
+			loaded.setValue("core.pager", "less ; -R");
+			loaded.save(file.toString());
+			Assert.assertEquals(loaded.getVariables(), FileHandler
+					.loadConfiguration(file).getVariables());
+			Assert.assertEquals("more # y", FileHandler.loadConfiguration(file)
+					.getValue("alias.v0"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void savePatchKeepsInlineComments() throws IOException {
+		final Path file = Files.createTempFile("gitconfig", ".patch");
+		try {
+			Files.write(file, ("[core]\n" + "\tbare = false ; c\n"
+					+ "\teditor = \"vi ; x\"  # quoted\n").getBytes("UTF-8"));
+			final Configuration config = FileHandler.loadConfiguration(file);
+			config.setValue("core.bare", "true");
+			config.setValue("core.editor", "vim #2");
+			config.save(file.toString());
+
+			Assert.assertEquals("[core]\n" + "\tbare = true ; c\n"
+					+ "\teditor = \"vim #2\"  # quoted\n", new String(Files
+					.readAllBytes(file), "UTF-8"));
+			Assert.assertEquals(config.getVariables(), FileHandler
+					.loadConfiguration(file).getVariables());
+
+			// the comment is still known to the next save
+			config.setValue("core.bare", "false");
+			config.save(file.toString());
+			Assert.assertTrue(new String(Files.readAllBytes(file), "UTF-8")
+					.startsWith("[core]\n\tbare = false ; c\n"));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void saveChannel() throws IOException {
+		final Configuration config = FileHandler
+				.loadConfiguration("resources/config-1");
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FileHandler.save(Channels.newChannel(output), config);
+
+		final Configuration loaded = FileHandler
+				.loadConfiguration(new ByteArrayInputStream(output
+						.toByteArray()));
+		Assert.assertEquals(config.getVariables(), loaded.getVariables());
+	}
+
+	@Test
+	public void loadIncludes() throws IOException {
+		final Path dir = Files.createTempDirectory("gitconfig");
+		final Path gitDir = Files.createDirectory(dir.resolve(".git"));
+		final Path config = gitDir.resolve("config");
+		final Path defaults = dir.resolve("defaults.inc");
+		final Path work = dir.resolve("work.inc");
+		final Path other = dir.resolve("other.inc");
+		try {
+			Files.write(defaults, "[core]\n\teditor = vi\n\tpager = less\n"
+					.getBytes("UTF-8"));
+			Files.write(work, "[user]\n\temail = me@work\n".getBytes("UTF-8"));
+			Files.write(other, "[user]\n\temail = me@home\n"
+					.getBytes("UTF-8"));
+			Files.write(config, ("[include]\n\tpath = ../defaults.inc\n"
+					+ "[core]\n\teditor = vim\n"
+					+ "[includeIf \"gitdir:" + gitDir + "\"]\n"
+					+ "\tpath = ../work.inc\n"
+					+ "[includeIf \"gitdir:/elsewhere/\"]\n"
+					+ "\tpath = ../other.inc\n"
+					+ "[include]\n\tpath = ../missing.inc\n").getBytes("UTF-8"));
+
+			Configuration loaded = FileHandler.loadConfiguration(config);
+			Assert.assertEquals("vim", loaded.getValue("core.editor"));
+			Assert.assertEquals("less", loaded.getValue("core.pager"));
+			Assert.assertEquals("me@work", loaded.getValue("user.email"));
+			Assert.assertEquals(2, loaded.getAll("include.path").size());
+
+			// only the changed fragment is parsed again
+			Files.write(defaults, "[core]\n\tpager = more\n".getBytes("UTF-8"));
+			Files.setLastModifiedTime(defaults, FileTime.fromMillis(Files
+					.getLastModifiedTime(defaults).toMillis() + 2000));
+			loaded = FileHandler.loadConfiguration(config, null);
+			Assert.assertEquals("more", loaded.getValue("core.pager"));
+			Assert.assertEquals("", loaded.getValue("user.email"));
+
+			Files.write(other, "[include]\n\tpath = .git/config\n"
+					.getBytes("UTF-8"));
+			try {
+				FileHandler.loadConfiguration(config, Paths.get("/elsewhere/x"));
+				Assert.fail("Include cycles must be rejected");
+			} catch (final IOException e) {
+				Assert.assertTrue(e.getMessage().startsWith("Include cycle"));
+			}
+		} finally {
+			for (final Path file : new Path[] { config, gitDir, defaults, work,
+					other, dir }) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void loadMissingFile() throws IOException {
+		FileHandler.loadConfiguration("resources/missing-config");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void loadInvalidSection() throws IOException {
+		FileHandler.loadConfiguration(new ByteArrayInputStream("[core\n"
+				.getBytes()));
+	}
+
+}
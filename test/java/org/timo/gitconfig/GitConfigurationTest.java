@@ -1,8 +1,27 @@
 package org.timo.gitconfig;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -154,4 +173,434 @@ public class GitConfigurationTest {
 		}
 	}
 
+	@Test
+	public void removeWhileIterating() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("main.test1", "testValue1");
+		config.setValue("main.sub.test1", "testValue2");
+		config.setValue("main.sub.test2", "testValue3");
+		config.setValue("core.test1", "testValue4");
+
+		final Map<String, String> visited = new HashMap<String, String>();
+		for (final Iterator<Entry<String, String>> iterator = config.iterator(); iterator
+				.hasNext();) {
+			final Entry<String, String> variable = iterator.next();
+			visited.put(variable.getKey(), variable.getValue());
+			if (variable.getKey().startsWith("main.sub.")) {
+				iterator.remove();
+			}
+		}
+		Assert.assertEquals(4, visited.size());
+		Assert.assertEquals("testValue3", visited.get("main.sub.test2"));
+		Assert.assertFalse(config.containsVariable("main.sub.test1"));
+		Assert.assertEquals("", config.getValue("main.sub.test2"));
+		Assert.assertEquals("testValue1", config.getValue("main.test1"));
+		Assert.assertEquals(2, config.getKeySet().size());
+	}
+
+	@Test
+	public void streamVariables() {
+		final Configuration config = new GitConfiguration();
+		for (int i = 0; i < 100; i++) {
+			config.setValue("section" + i, "key", String.valueOf(i));
+			config.setValue("section" + i, "sub", "key", String.valueOf(i));
+		}
+		config.setValue("core.editor", "vim");
+
+		final Spliterator<Entry<String, String>> spliterator = config
+				.spliterator();
+		Assert.assertEquals(201, spliterator.getExactSizeIfKnown());
+		final Spliterator<Entry<String, String>> prefix = spliterator
+				.trySplit();
+		Assert.assertNotNull(prefix);
+		Assert.assertEquals(201, prefix.getExactSizeIfKnown()
+				+ spliterator.getExactSizeIfKnown());
+
+		Assert.assertEquals(201, config.parallelStream().count());
+		Assert.assertEquals(config.getVariables(), config.parallelStream()
+				.collect(Collectors.toMap(new Function<Entry<String, String>, String>() {
+					@Override
+					public String apply(final Entry<String, String> variable) {
+						return variable.getKey();
+					}
+				}, new Function<Entry<String, String>, String>() {
+					@Override
+					public String apply(final Entry<String, String> variable) {
+						return variable.getValue();
+					}
+				})));
+		Assert.assertEquals(201, ((GitConfiguration) config).freeze()
+				.parallelStream().count());
+	}
+
+	@Test
+	public void prefixQueries() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("remote.origin.url", "git://host/origin.git");
+		config.setValue("remote.other.url", "git://host/other.git");
+		config.setValue("remote.upstream.url", "git://host/upstream.git");
+		config.setValue("branch.master.remote", "origin");
+		config.setValue("remotes.default", "origin");
+
+		final SortedMap<String, String> remotes = config
+				.getVariablesWithPrefix("remote.o");
+		Assert.assertEquals(Arrays.asList("remote.origin.url",
+				"remote.other.url"), new ArrayList<String>(remotes.keySet()));
+		Assert.assertEquals(3, config.subtree("remote").size());
+		Assert.assertEquals(4, config.getVariablesWithPrefix("remote").size());
+		Assert.assertEquals(5, config.getVariablesWithPrefix("").size());
+
+		config.setValue("remote.outer.url", "git://host/outer.git");
+		config.remove("remote.origin.url");
+		Assert.assertEquals(Arrays.asList("remote.other.url",
+				"remote.outer.url"), new ArrayList<String>(remotes.keySet()));
+
+		config.renameSection("branch", "master", "main");
+		Assert.assertEquals("origin", config.subtree("branch").get(
+				"branch.main.remote"));
+		Assert.assertEquals(4, ((GitConfiguration) config).freeze()
+				.getVariablesWithPrefix("remote").size());
+	}
+
+	@Test
+	public void findByRegex() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("remote.origin.url", "git://github.com/repo.git");
+		config.setValue("remote.origin.fetch", "+refs/heads/*");
+		config.setValue("remote.mirror.url", "git://example.com/repo.git");
+		config.setValue("remote.backup.url", "git://github.com/backup.git");
+		config.setValue("core.url", "git://github.com/core.git");
+
+		final Set<String> keys = new HashSet<String>();
+		final Iterator<Entry<String, String>> matches = config.findByRegex(
+				"^remote\\..*\\.url$", "github").iterator();
+		while (matches.hasNext()) {
+			keys.add(matches.next().getKey());
+		}
+		Assert.assertEquals(new HashSet<String>(Arrays.asList(
+				"remote.origin.url", "remote.backup.url")), keys);
+		Assert.assertEquals(4, config.findByRegex("url", null).count());
+		Assert.assertEquals(0, config.findByRegex("^rem(ote)?x", null).count());
+
+		Assert.assertEquals("remote.", RegexFilter
+				.getLiteralPrefix("^remote\\..*\\.url$"));
+		Assert.assertEquals("rem", RegexFilter.getLiteralPrefix("^remo?te"));
+		Assert.assertEquals("", RegexFilter.getLiteralPrefix("^core|remote"));
+		Assert.assertEquals("", RegexFilter.getLiteralPrefix("remote"));
+		Assert.assertEquals(2, ((GitConfiguration) config).freeze()
+				.findByRegex("^remote\\..*\\.url$", "github").count());
+	}
+
+	@Test
+	public void multiValuedVariables() throws IOException {
+		final Configuration config = new GitConfiguration();
+		config.load(new ByteArrayInputStream(("[remote \"origin\"]\n"
+				+ "\turl = git://host/repo.git\n"
+				+ "\tfetch = +refs/heads/*:refs/remotes/origin/*\n"
+				+ "\tfetch = +refs/tags/*:refs/tags/*\n").getBytes("UTF-8")));
+
+		Assert.assertEquals(Arrays.asList(
+				"+refs/heads/*:refs/remotes/origin/*",
+				"+refs/tags/*:refs/tags/*"), config.getAll("remote.origin.fetch"));
+		Assert.assertEquals("+refs/tags/*:refs/tags/*", config
+				.getValue("remote.origin.fetch"));
+		Assert.assertEquals(Arrays.asList("git://host/repo.git"), config
+				.getAll("remote.origin.url"));
+		Assert.assertTrue(config.getAll("remote.origin.push").isEmpty());
+
+		config.add("remote.origin.fetch", "+refs/notes/*:refs/notes/*");
+		config.replaceAll("remote.origin.fetch", "+refs/pull/*", "tags");
+		Assert.assertEquals(Arrays.asList(
+				"+refs/heads/*:refs/remotes/origin/*",
+				"+refs/notes/*:refs/notes/*", "+refs/pull/*"), config
+				.getAll("remote.origin.fetch"));
+
+		final StringWriter writer = new StringWriter();
+		config.write(writer);
+		final Configuration copy = new GitConfiguration();
+		copy.load(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")));
+		Assert.assertEquals(config.getAll("remote.origin.fetch"), copy
+				.getAll("remote.origin.fetch"));
+		Assert.assertEquals(3, ((GitConfiguration) config).freeze().getAll(
+				"remote.origin.fetch").size());
+
+		config.unsetAll("remote.origin.fetch", "^\\+refs/(notes|pull)/");
+		Assert.assertEquals(Arrays.asList("+refs/heads/*:refs/remotes/origin/*"),
+				config.getAll("remote.origin.fetch"));
+		config.unsetAll("remote.origin.fetch", null);
+		Assert.assertFalse(config.containsVariable("remote.origin.fetch"));
+	}
+
+	@Test
+	public void loadIntoExisting() throws IOException {
+		final Configuration config = new GitConfiguration();
+		config.setValue("core.editor", "vim");
+		config.setValue("core.pager", "less");
+		config.load("resources/config-1");
+
+		Assert.assertEquals("emacs", config.getValue("core.editor"));
+		Assert.assertEquals("less", config.getValue("core.pager"));
+		Assert.assertEquals("+refs/heads/*:refs/remotes/origin/*", config
+				.getValue("remote.origin.fetch"));
+	}
+
+	@Test
+	public void loadLazily() throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		config.setValue("user.name", "Someone");
+		config.setValue("color.ui", "auto");
+		config.loadLazily("resources/config-1");
+
+		Assert.assertEquals("Timoteo Ponce", config.getValue("user.name"));
+		Assert.assertEquals("http://git.kernel.org/pub/scm/git/git.git",
+				config.getValue("remote.origin.url"));
+
+		config.setValue("core.editor", "vim");
+		config.removeSection("alias");
+		config.renameSection("color", "colour");
+
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("false", config.getValue("core.autocrlf"));
+		Assert.assertEquals("", config.getValue("alias.last"));
+		Assert.assertEquals("auto", config.getValue("colour.ui"));
+		Assert.assertEquals("auto", config.getValue("colour.branch"));
+
+		final Configuration eager = new GitConfiguration();
+		eager.load("resources/config-1");
+		Assert.assertEquals(eager.getValue("remote.origin.fetch"), config
+				.getValue("remote.origin.fetch"));
+		Assert.assertEquals(eager.getValue("user.email"), config
+				.getValue("user.email"));
+	}
+
+	@Test
+	public void loadSnapshot() throws IOException {
+		final Path source = Files.createTempFile("gitconfig", ".source");
+		final Path snapshot = Files.createTempFile("gitconfig", ".snapshot");
+		try {
+			Files.copy(Paths.get("resources/config-1"), source,
+					StandardCopyOption.REPLACE_EXISTING);
+			final GitConfiguration config = new GitConfiguration();
+			config.load(source.toString());
+			config.saveSnapshot(snapshot.toString(), source.toString());
+
+			final GitConfiguration loaded = new GitConfiguration();
+			Assert.assertTrue(loaded.loadSnapshot(snapshot.toString(), source
+					.toString()));
+			Assert.assertEquals(config.getValue("remote.origin.url"), loaded
+					.getValue("remote.origin.url"));
+			Assert.assertEquals(config.getVariables(), loaded.getVariables());
+
+			Files.write(source, "[core]\n\teditor = vim\n".getBytes("UTF-8"));
+			final GitConfiguration reloaded = new GitConfiguration();
+			Assert.assertFalse(reloaded.loadSnapshot(snapshot.toString(),
+					source.toString()));
+			Assert.assertEquals("vim", reloaded.getValue("core.editor"));
+			Assert.assertEquals("", reloaded.getValue("user.name"));
+		} finally {
+			Files.delete(source);
+			Files.delete(snapshot);
+		}
+	}
+
+	@Test
+	public void composedKeysFollowChanges() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("remote.origin.url", "git://host/a.git");
+		config.setValue("remote.origin.fetch", "+refs/heads/*");
+		config.setValue("remote", "origin", "url", "git://host/b.git");
+		Assert.assertEquals("git://host/b.git", config
+				.getValue("remote.origin.url"));
+
+		config.renameSection("remote", "origin", "upstream");
+		Assert.assertEquals("", config.getValue("remote.origin.url"));
+		Assert.assertEquals("git://host/b.git", config
+				.getValue("remote.upstream.url"));
+
+		config.remove("remote.upstream.fetch");
+		Assert.assertFalse(config.containsVariable("remote.upstream.fetch"));
+
+		config.removeSection("remote", "upstream");
+		Assert.assertEquals("", config.getValue("remote.upstream.url"));
+
+		config.setValue("branch.main", "remote", "origin");
+		Assert.assertEquals("origin", config.getValue("branch.main.remote"));
+		config.renameSection("branch", "renamed");
+		Assert.assertEquals("", config.getValue("branch.main.remote"));
+		Assert.assertEquals("origin", config.getValue("renamed.main.remote"));
+	}
+
+	@Test
+	public void getKeyValue() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("core.editor", "vim");
+		config.setValue("remote.origin.url", "git://host/repo.git");
+
+		final ConfigKey editor = ConfigKey.of("core.editor");
+		final ConfigKey url = ConfigKey.of("remote.origin.url");
+		Assert.assertEquals("vim", config.getValue(editor));
+		Assert.assertEquals("git://host/repo.git", config.getValue(url));
+		Assert.assertEquals("", config.getValue(ConfigKey.of("core.pager")));
+
+		config.removeSection("remote");
+		Assert.assertFalse(config.containsVariable(url));
+		Assert.assertTrue(config.containsVariable(editor));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidConfigKey() {
+		ConfigKey.of("core");
+	}
+
+	@Test
+	public void getTypedValues() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("core.bare", "yes");
+		config.setValue("core.compression", "9");
+		config.setValue("core.packedGitLimit", "256m");
+		config.setValue("core.bigFileThreshold", "2g");
+		config.setValue("core.ratio", "0.5");
+
+		Assert.assertTrue(config.getBoolean("core.bare", false));
+		Assert.assertTrue(config.getBoolean("core.compression", false));
+		Assert.assertTrue(config.getBoolean("core.missing", true));
+		Assert.assertEquals(9, config.getInt("core.compression", 0));
+		Assert.assertEquals(268435456, config.getInt("core.packedGitLimit", 0));
+		Assert.assertEquals(2147483648L, config.getLong("core.bigFileThreshold",
+				0L));
+		Assert.assertEquals(7, config.getInt("core.missing", 7));
+		Assert.assertEquals(0.5, config.getDouble("core.ratio", 0), 0);
+
+		config.setValue("core.bare", "off");
+		config.setValue("core.compression", "1k");
+		Assert.assertFalse(config.getBoolean("core.bare"));
+		Assert.assertEquals(Integer.valueOf(1024), config
+				.getInt("core.compression"));
+		config.remove("core.compression");
+		Assert.assertEquals(-1, config.getInt("core.compression", -1));
+	}
+
+	@Test
+	public void getTypedValuesOfPendingSections() throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		config.loadLazily("resources/config-1");
+
+		Assert.assertFalse(config.getBoolean("core.autocrlf", true));
+		Assert.assertEquals(3, config.getInt("user.missing", 3));
+		Assert.assertEquals(3, config.getInt("remote.origin.missing", 3));
+		Assert.assertEquals("auto", config.getValue("color.diff"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void getIntOutOfRange() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("core.bigFileThreshold", "2g");
+		config.getInt("core.bigFileThreshold", 0);
+	}
+
+	@Test
+	public void commitTransaction() {
+		final Configuration config = new GitConfiguration();
+		config.setValue("remote.origin.url", "git://host/repo.git");
+
+		final ConfigTransaction transaction = config.beginTransaction();
+		transaction.setValue("remote.origin.fetch", "+refs/heads/*")
+				.renameSection("remote", "origin", "upstream");
+		Assert.assertEquals("", config.getValue("remote.upstream.url"));
+		transaction.commit();
+		Assert.assertEquals("git://host/repo.git", config
+				.getValue("remote.upstream.url"));
+		Assert.assertEquals("+refs/heads/*", config
+				.getValue("remote.upstream.fetch"));
+
+		try {
+			config.beginTransaction().remove("remote.upstream.url").remove(
+					"invalid").commit();
+			Assert.fail("Invalid key must fail the transaction");
+		} catch (final RuntimeException e) {
+			Assert.assertEquals("git://host/repo.git", config
+					.getValue("remote.upstream.url"));
+		}
+	}
+
+	@Test
+	public void transactionEvents() {
+		final Configuration config = new GitConfiguration();
+		config.setChangeExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				command.run();
+			}
+		});
+		final List<String> seen = new ArrayList<String>();
+		config.addChangeListener("a", new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				seen.add(configuration.getValue("a.b") + "/"
+						+ configuration.getValue("a.c"));
+			}
+		});
+
+		try {
+			config.beginTransaction().setValue("a.b", "1").setValue("bogus",
+					"2").commit();
+			Assert.fail("Invalid key must fail the transaction");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertTrue(config.isEmpty());
+		Assert.assertEquals(0, seen.size());
+
+		config.beginTransaction().setValue("a.b", "1").setValue("a.c", "2")
+				.commit();
+		Assert.assertEquals(Arrays.asList("1/2"), seen);
+	}
+
+	@Test
+	public void changeListeners() {
+		final Configuration config = new GitConfiguration();
+		final List<Runnable> deliveries = new ArrayList<Runnable>();
+		config.setChangeExecutor(new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				deliveries.add(command);
+			}
+		});
+		final Set<String> originKeys = new HashSet<String>();
+		final Set<String> allKeys = new HashSet<String>();
+		config.addChangeListener("remote.origin", new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				originKeys.addAll(composedKeys);
+			}
+		});
+		config.addChangeListener("", new ConfigChangeListener() {
+			@Override
+			public void configurationChanged(final Configuration configuration,
+					final Set<String> composedKeys) {
+				allKeys.addAll(composedKeys);
+			}
+		});
+
+		config.setValue("remote.origin.url", "git://host/repo.git");
+		config.setValue("remote.origin.url", "git://host/other.git");
+		config.setValue("remote.origin.fetch", "+refs/heads/*");
+		config.setValue("remote.originals.url", "git://host/originals.git");
+		config.setValue("core.editor", "vim");
+		Assert.assertEquals(1, deliveries.size());
+		deliveries.remove(0).run();
+
+		Assert.assertEquals(new HashSet<String>(Arrays.asList(
+				"remote.origin.url", "remote.origin.fetch")), originKeys);
+		Assert.assertEquals(4, allKeys.size());
+
+		originKeys.clear();
+		config.removeSection("remote", "origin");
+		deliveries.remove(0).run();
+		Assert.assertEquals(new HashSet<String>(Arrays.asList(
+				"remote.origin.url", "remote.origin.fetch")), originKeys);
+	}
+
 }
@@ -0,0 +1,52 @@
+package org.timo.gitconfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ *
+ */
+public class ImmutableConfigurationTest {
+
+	@Test
+	public void freeze() throws IOException {
+		final GitConfiguration config = new GitConfiguration();
+		config.load("resources/config-1");
+		config.setValue("branch", "feature.x", "remote", "origin");
+		final Configuration frozen = config.freeze();
+
+		Assert.assertEquals(config.getVariables(), frozen.getVariables());
+		Assert.assertEquals(config.getKeySet(), frozen.getKeySet());
+		for (final String key : config.getKeySet()) {
+			Assert.assertEquals(config.getValue(key), frozen.getValue(key));
+		}
+		Assert.assertEquals("origin", frozen.getValue("branch", "feature.x",
+				"remote"));
+		Assert.assertEquals("origin", frozen.getValue("branch.feature.x",
+				"remote"));
+		Assert.assertEquals(config.getVariables("remote.origin"), frozen
+				.getVariables("remote.origin"));
+		Assert.assertEquals("", frozen.getValue("core.missing"));
+		Assert.assertEquals("", frozen.getValue("missing.origin.url"));
+		Assert.assertTrue(frozen.containsVariable(ConfigKey
+				.of("remote.origin.url")));
+
+		config.setValue("core.editor", "vim");
+		Assert.assertEquals("emacs", frozen.getValue("core.editor"));
+
+		final Configuration reloaded = new GitConfiguration();
+		reloaded.load(new ByteArrayInputStream(frozen.getTextContent()
+				.getBytes("UTF-8")));
+		Assert.assertEquals(frozen.getVariables(), reloaded.getVariables());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void setValue() {
+		new GitConfiguration().freeze().setValue("core.editor", "vim");
+	}
+
+}
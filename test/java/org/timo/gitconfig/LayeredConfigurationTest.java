@@ -0,0 +1,170 @@
+package org.timo.gitconfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ *
+ */
+public class LayeredConfigurationTest {
+
+	@Test
+	public void precedence() {
+		final Configuration system = new GitConfiguration();
+		system.setValue("core.editor", "vi");
+		system.setValue("core.pager", "less");
+		system.add("remote.origin.fetch", "+refs/heads/*");
+		final Configuration global = new GitConfiguration();
+		global.setValue("core.editor", "emacs");
+		final Configuration local = new GitConfiguration();
+		local.setValue("core.editor", "vim");
+		local.add("remote.origin.fetch", "+refs/tags/*");
+
+		final LayeredConfiguration config = new LayeredConfiguration(system,
+				global, local);
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("less", config.getValue("core", "pager"));
+		Assert.assertEquals(Arrays.asList("+refs/heads/*", "+refs/tags/*"),
+				config.getAll("remote.origin.fetch"));
+		Assert.assertEquals(3, config.getKeySet().size());
+		Assert.assertEquals(2, config.subtree("core").size());
+	}
+
+	@Test
+	public void writesGoToTargetLayer() {
+		final Configuration global = new GitConfiguration();
+		global.setValue("user.name", "global");
+		final Configuration local = new GitConfiguration();
+		final LayeredConfiguration config = new LayeredConfiguration(global,
+				local);
+
+		config.setValue("user.name", "local");
+		Assert.assertEquals("local", config.getValue("user.name"));
+		Assert.assertEquals("local", local.getValue("user.name"));
+		Assert.assertEquals("global", global.getValue("user.name"));
+
+		config.remove("user.name");
+		Assert.assertEquals("global", config.getValue("user.name"));
+
+		config.setTargetLayer(global);
+		config.setValue("user", "email", "me@example.com");
+		Assert.assertEquals("me@example.com", global.getValue("user.email"));
+		config.removeSection("user");
+		Assert.assertTrue(config.isEmpty());
+		Assert.assertEquals("", config.getTextContent());
+
+		try {
+			config.setTargetLayer(new GitConfiguration());
+			Assert.fail("Only layers can be written to");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void failingTransaction() {
+		final Configuration global = new GitConfiguration();
+		global.setValue("core.editor", "vi");
+		final Configuration local = new GitConfiguration();
+		final LayeredConfiguration config = new LayeredConfiguration(global,
+				local);
+		try {
+			config.beginTransaction().setValue("a.b", "1").setValue("bogus",
+					"2").commit();
+			Assert.fail("Invalid key must fail the transaction");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals("", config.getValue("a.b"));
+		Assert.assertTrue(local.isEmpty());
+
+		config.beginTransaction().setValue("a.b", "1").setValue("core.editor",
+				"vim").commit();
+		Assert.assertEquals("1", config.getValue("a.b"));
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("vi", global.getValue("core.editor"));
+	}
+
+	@Test
+	public void followsLayerChanges() {
+		final List<Runnable> deliveries = new ArrayList<Runnable>();
+		final Executor queue = new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				deliveries.add(command);
+			}
+		};
+		final Configuration global = new ConcurrentConfiguration();
+		global.setChangeExecutor(queue);
+		final Configuration local = new ConcurrentConfiguration();
+		local.setChangeExecutor(queue);
+		local.setValue("core.editor", "vim");
+		final LayeredConfiguration config = new LayeredConfiguration(global,
+				local);
+
+		global.setValue("core.editor", "emacs");
+		global.setValue("core.pager", "less");
+		deliver(deliveries);
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("less", config.getValue("core.pager"));
+
+		local.renameSection("core", "editor");
+		deliver(deliveries);
+		Assert.assertEquals("emacs", config.getValue("core.editor"));
+		Assert.assertEquals("vim", config.getValue("editor.editor"));
+
+		config.detach();
+		global.setValue("core.pager", "more");
+		deliver(deliveries);
+		Assert.assertEquals("less", config.getValue("core.pager"));
+	}
+
+	@Test
+	public void followsConcurrentLayerChanges() throws InterruptedException {
+		final Configuration global = new ConcurrentConfiguration();
+		final Configuration local = new ConcurrentConfiguration();
+		local.setValue("core.editor", "vim");
+		final LayeredConfiguration config = new LayeredConfiguration(global,
+				local);
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 500; i++) {
+					global.setValue("core.pager", "less" + i);
+					global.setValue("core.editor", "emacs" + i);
+				}
+			}
+		};
+		writer.start();
+		for (int i = 0; i < 500; i++) {
+			config.setValue("user.name", "name" + i);
+		}
+		writer.join();
+
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (!config.getAll("core.editor").contains("emacs499")
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals("less499", config.getValue("core.pager"));
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("name499", config.getValue("user.name"));
+		Assert.assertEquals(Arrays.asList("emacs499", "vim"), config
+				.getAll("core.editor"));
+		config.detach();
+	}
+
+	private static void deliver(final List<Runnable> deliveries) {
+		for (final Runnable delivery : deliveries) {
+			delivery.run();
+		}
+		deliveries.clear();
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ * 
+ */
+public class ReloadingConfigurationTest {
+
+	@Test
+	public void reloadChanges() throws IOException, InterruptedException {
+		final Path file = Files.createTempFile("gitconfig", ".reload");
+		Files.write(file, "[core]\n\teditor = vim\n\tpager = less\n[user]\n\tname = Timo\n"
+				.getBytes("UTF-8"));
+		final ReloadingConfiguration config = new ReloadingConfiguration(file
+				.toString());
+		try {
+			Assert.assertEquals("vim", config.getValue("core.editor"));
+			Assert.assertFalse(config.reload());
+
+			final CountDownLatch reloaded = new CountDownLatch(1);
+			config.addChangeListener("core.editor", new ConfigChangeListener() {
+				@Override
+				public void configurationChanged(
+						final Configuration configuration,
+						final Set<String> composedKeys) {
+					reloaded.countDown();
+				}
+			});
+			Files.write(file, "[core]\n\teditor = emacs\n[remote \"origin\"]\n\turl = git://host/repo.git\n"
+					.getBytes("UTF-8"));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files
+					.getLastModifiedTime(file).toMillis() + 2000));
+			// either this call or the watcher thread applies the change
+			config.reload();
+			Assert.assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+
+			Assert.assertEquals("emacs", config.getValue("core.editor"));
+			Assert.assertEquals("", config.getValue("core.pager"));
+			Assert.assertEquals("", config.getValue("user.name"));
+			Assert.assertEquals("git://host/repo.git", config
+					.getValue("remote.origin.url"));
+			Assert.assertFalse(config.reload());
+		} finally {
+			config.close();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void reloadIncludedChanges() throws IOException {
+		final Path dir = Files.createTempDirectory("gitconfig");
+		final Path file = dir.resolve("config");
+		final Path included = dir.resolve("defaults.inc");
+		Files.write(included, "[core]\n\tpager = less\n".getBytes("UTF-8"));
+		Files.write(file, "[include]\n\tpath = defaults.inc\n[core]\n\teditor = vim\n"
+				.getBytes("UTF-8"));
+		final ReloadingConfiguration config = new ReloadingConfiguration(file
+				.toString());
+		try {
+			Assert.assertEquals("less", config.getValue("core.pager"));
+			Assert.assertFalse(config.reload());
+
+			// only the included file changes, the watcher ignores it
+			Files.write(included, "[core]\n\tpager = more\n".getBytes("UTF-8"));
+			Files.setLastModifiedTime(included, FileTime.fromMillis(Files
+					.getLastModifiedTime(included).toMillis() + 2000));
+			Assert.assertTrue(config.reload());
+			Assert.assertEquals("more", config.getValue("core.pager"));
+			Assert.assertEquals("vim", config.getValue("core.editor"));
+			Assert.assertFalse(config.reload());
+
+			Files.delete(included);
+			Assert.assertTrue(config.reload());
+			Assert.assertEquals("", config.getValue("core.pager"));
+			Assert.assertFalse(config.reload());
+		} finally {
+			config.close();
+			Files.deleteIfExists(included);
+			Files.delete(file);
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void readersNeverSeeReloadInProgress() throws Exception {
+		final Path file = Files.createTempFile("gitconfig", ".reload");
+		write(file, "1", 0);
+		final ReloadingConfiguration config = new ReloadingConfiguration(file
+				.toString());
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger reads = new AtomicInteger();
+		final AtomicInteger mixed = new AtomicInteger();
+		final Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					// a single read, two of them may span a reload
+					final Map<String, String> variables = config
+							.getVariables();
+					final String first = variables.get("s.k0");
+					if (first == null || !first.equals(variables.get("s.k1999"))) {
+						mixed.incrementAndGet();
+					}
+					reads.incrementAndGet();
+				}
+			}
+		});
+		try {
+			reader.start();
+			for (int i = 1; i <= 50; i++) {
+				write(file, i % 2 == 0 ? "1" : "2", i);
+				config.reload();
+			}
+			Assert.assertEquals("1", config.getValue("s.k0"));
+		} finally {
+			running.set(false);
+			reader.join();
+			config.close();
+			Files.delete(file);
+		}
+		Assert.assertTrue(reads.get() > 0);
+		Assert.assertEquals(0, mixed.get());
+	}
+
+	/**
+	 * Replaces given file with 2000 variables of given value, moving the
+	 * modification time forward so that every version is reloaded.
+	 */
+	private static void write(final Path file, final String value,
+			final int version) throws IOException {
+		final StringBuilder content = new StringBuilder("[s]\n");
+		for (int i = 0; i < 2000; i++) {
+			content.append("\tk").append(i).append(" = ").append(value)
+					.append('\n');
+		}
+		// the watcher must never read a file half written
+		final Path next = file.resolveSibling(file.getFileName() + ".next");
+		Files.write(next, content.toString().getBytes("UTF-8"));
+		Files.setLastModifiedTime(next, FileTime.fromMillis(1000000000000L
+				+ version * 2000L));
+		Files.move(next, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
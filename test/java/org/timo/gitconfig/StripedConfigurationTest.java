@@ -0,0 +1,92 @@
+package org.timo.gitconfig;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Timoteo Ponce
+ *
+ */
+public class StripedConfigurationTest {
+
+	@Test
+	public void readWrite() throws IOException {
+		final Configuration config = new StripedConfiguration(4);
+		config.load("resources/config-1");
+
+		final Configuration expected = new GitConfiguration();
+		expected.load("resources/config-1");
+		Assert.assertEquals(expected.getVariables(), config.getVariables());
+
+		config.setValue("core.editor", "vim");
+		config.renameSection("remote", "upstream");
+		config.renameSection("upstream", "origin", "mirror.backup");
+		Assert.assertEquals("vim", config.getValue("core.editor"));
+		Assert.assertEquals("", config.getValue("remote.origin.url"));
+		Assert.assertEquals(expected.getValue("remote.origin.url"), config
+				.getValue("mirror.backup.url"));
+
+		config.removeSection("mirror");
+		Assert.assertFalse(config.containsVariable("mirror.backup.url"));
+	}
+
+	@Test
+	public void concurrentSections() throws InterruptedException {
+		final StripedConfiguration config = new StripedConfiguration();
+		final Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final String section = "remote" + t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						config.setValue(section, "origin", "key" + i, String
+								.valueOf(i));
+						config.getValue(section + ".origin.key" + i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(threads.length * 200, config.getKeySet().size());
+		Assert.assertEquals("199", config.getValue("remote7.origin.key199"));
+	}
+
+	@Test
+	public void prefixQueries() {
+		final Configuration config = new StripedConfiguration();
+		config.setValue("remote.origin.url", "git://host/origin.git");
+		config.setValue("remote.upstream.url", "git://host/upstream.git");
+		config.setValue("remotes.default", "origin");
+		config.setValue("core.editor", "vim");
+
+		Assert.assertEquals(2, config.subtree("remote").size());
+		Assert.assertEquals(3, config.getVariablesWithPrefix("remote").size());
+		config.remove("remote.origin.url");
+		Assert.assertEquals("remote.upstream.url", config
+				.getVariablesWithPrefix("remote.").firstKey());
+	}
+
+	@Test
+	public void failingTransaction() {
+		final Configuration config = new StripedConfiguration();
+		config.setValue("remote.origin.url", "git://host/repo.git");
+		try {
+			config.beginTransaction().setValue("a.b", "1").renameSection(
+					"remote", "upstream").setValue("bogus", "2").commit();
+			Assert.fail("Invalid key must fail the transaction");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertEquals("", config.getValue("a.b"));
+		Assert.assertEquals("git://host/repo.git", config
+				.getValue("remote.origin.url"));
+		Assert.assertEquals(1, config.getKeySet().size());
+	}
+
+}